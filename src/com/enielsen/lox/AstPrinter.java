@@ -98,6 +98,47 @@ class AstPrinter implements Expr.Visitor<String> {
         return ""; //TODO
     }
 
+    @Override
+    public String visitMapExpr(Expr.Map expr) {
+        // Keys and values alternately, (map k1 v1 k2 v2)
+        Expr[] entries = new Expr[expr.keys.size() * 2];
+        for (int i = 0; i < expr.keys.size(); i++) {
+            entries[2 * i] = expr.keys.get(i);
+            entries[2 * i + 1] = expr.values.get(i);
+        }
+        return parenthesize("map", entries);
+    }
+
+    @Override
+    public String visitDataExpr(Expr.Data expr) {
+        StringBuilder builder = new StringBuilder();
+        printData(expr.table, new int[1], builder);
+        return builder.toString();
+    }
+
+    // Arrays and maps with the line they are on, (array@1 1 (map@2 "a" 2))
+    private void printData(DataTable table, int[] next, StringBuilder builder) {
+        int node = next[0]++;
+        int operand = table.operands[node];
+        switch (table.kinds[node]) {
+            case DataTable.CONSTANT:
+                Object value = table.constants[operand];
+                builder.append(value == null ? "nil" : value.toString());
+                return;
+            case DataTable.EXPR:
+                builder.append(table.children[operand].accept(this));
+                return;
+        }
+
+        boolean isArray = table.kinds[node] == DataTable.ARRAY;
+        builder.append(isArray ? "(array@" : "(map@").append(table.line(node));
+        for (int i = 0; i < (isArray ? operand : operand * 2); i++) {
+            builder.append(" ");
+            printData(table, next, builder);
+        }
+        builder.append(")");
+    }
+
     @Override
     public String visitIndexGetExpr(Expr.IndexGet expr) {
         return ""; //TODO
@@ -107,4 +148,12 @@ class AstPrinter implements Expr.Visitor<String> {
     public String visitIndexSetExpr(Expr.IndexSet expr) {
         return ""; //TODO
     }
+
+    @Override
+    public String visitSliceExpr(Expr.Slice expr) {
+        // A bound that is left out prints as nil, a[:y] is (slice a nil y)
+        return parenthesize("slice", expr.indexee,
+                expr.from == null ? new Expr.Literal(null) : expr.from,
+                expr.to == null ? new Expr.Literal(null) : expr.to);
+    }
 }
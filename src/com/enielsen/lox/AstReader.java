@@ -0,0 +1,143 @@
+package com.enielsen.lox;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads programs written by AstWriter.
+class AstReader {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    AstReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    List<Stmt> readProgram() throws IOException {
+        if (in.readInt() != AstWriter.MAGIC || in.readInt() != AstWriter.VERSION) {
+            throw new IOException("Not a compiled Lox program of this version.");
+        }
+        return readStmts();
+    }
+
+    int readTag() throws IOException {
+        return in.readByte();
+    }
+
+    Expr readExpr() throws IOException {
+        int tag = in.readByte();
+        if (tag == AstWriter.NULL_TAG) return null;
+        return Expr.read(this, tag);
+    }
+
+    Stmt readStmt() throws IOException {
+        int tag = in.readByte();
+        if (tag == AstWriter.NULL_TAG) return null;
+        return Stmt.read(this, tag);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Expr> List<T> readExprs() throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        List<T> exprs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            exprs.add((T) readExpr());
+        }
+        return exprs;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Stmt> List<T> readStmts() throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        List<T> stmts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            stmts.add((T) readStmt());
+        }
+        return stmts;
+    }
+
+    Token readToken() throws IOException {
+        int type = in.readByte();
+        if (type == AstWriter.NULL_TAG) return null;
+        String lexeme = readString();
+        Object literal = readLiteral();
+        return new Token(tokenTypes[type], lexeme, literal, in.readInt());
+    }
+
+    List<Token> readTokens() throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(readToken());
+        }
+        return tokens;
+    }
+
+    Object readLiteral() throws IOException {
+        switch (in.readByte()) {
+            case 0: return null;
+            case 1: return true;
+            case 2: return false;
+            case 3: return in.readDouble();
+            case 4: return readString();
+            case 5: return in.readLong();
+        }
+        throw new IOException("Unknown literal tag.");
+    }
+
+    DeferredBody readDeferred() throws IOException {
+        if (!in.readBoolean()) return null;
+
+        DeferredBody deferred = new DeferredBody(readToken(), readTokens());
+        deferred.functionType = Resolver.FunctionType.values()[in.readByte()];
+        deferred.classType = Resolver.ClassType.values()[in.readByte()];
+        deferred.classMethod = in.readBoolean();
+        return deferred;
+    }
+
+    DataTable readDataTable() throws IOException {
+        byte[] kinds = new byte[in.readInt()];
+        in.readFully(kinds);
+        int[] operands = new int[kinds.length];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = in.readInt();
+        }
+        Object[] constants = new Object[in.readInt()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = readLiteral();
+        }
+        List<Expr> children = readExprs();
+        int[] lines = new int[in.readInt()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = in.readInt();
+        }
+        return new DataTable(kinds, operands, constants, children.toArray(new Expr[0]), lines);
+    }
+
+    boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+    int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    private String readString() throws IOException {
+        int index = in.readInt();
+        if (index < strings.size()) return strings.get(index);
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,171 @@
+package com.enielsen.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a compiled program, including resolver depths and deferred bodies,
+// in a compact binary format. Strings are written once and referred to by
+// index afterwards. Read back with AstReader.
+class AstWriter {
+    static final int MAGIC = 0x4c4f5843; // "LOXC"
+    static final int VERSION = 6;
+    static final int NULL_TAG = -1;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    AstWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    void writeProgram(List<Stmt> statements) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeStmts(statements);
+        out.flush();
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    void writeTag(int tag) throws IOException {
+        out.writeByte(tag);
+    }
+
+    void writeExpr(Expr expr) throws IOException {
+        if (expr == null) {
+            writeTag(NULL_TAG);
+        } else {
+            expr.write(this);
+        }
+    }
+
+    void writeStmt(Stmt stmt) throws IOException {
+        if (stmt == null) {
+            writeTag(NULL_TAG);
+        } else {
+            stmt.write(this);
+        }
+    }
+
+    void writeExprs(List<? extends Expr> exprs) throws IOException {
+        if (exprs == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(exprs.size());
+        for (Expr expr : exprs) {
+            writeExpr(expr);
+        }
+    }
+
+    void writeStmts(List<? extends Stmt> stmts) throws IOException {
+        if (stmts == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(stmts.size());
+        for (Stmt stmt : stmts) {
+            writeStmt(stmt);
+        }
+    }
+
+    void writeToken(Token token) throws IOException {
+        if (token == null) {
+            writeTag(NULL_TAG);
+            return;
+        }
+        writeTag(token.type.ordinal());
+        writeString(token.lexeme);
+        writeLiteral(token.literal);
+        out.writeInt(token.line);
+    }
+
+    void writeTokens(List<Token> tokens) throws IOException {
+        if (tokens == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(tokens.size());
+        for (Token token : tokens) {
+            writeToken(token);
+        }
+    }
+
+    void writeLiteral(Object value) throws IOException {
+        if (value == null) {
+            writeTag(0);
+        } else if (value instanceof Boolean) {
+            writeTag((Boolean) value ? 1 : 2);
+        } else if (value instanceof Double) {
+            writeTag(3);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            writeTag(4);
+            writeString((String) value);
+        } else if (value instanceof Long) {
+            writeTag(5);
+            out.writeLong((Long) value);
+        } else {
+            throw new IOException("Cannot write literal of type " + value.getClass().getSimpleName() + ".");
+        }
+    }
+
+    void writeDeferred(DeferredBody deferred) throws IOException {
+        out.writeBoolean(deferred != null);
+        if (deferred == null) return;
+
+        writeToken(deferred.brace);
+        writeTokens(deferred.tokens);
+        writeTag(deferred.functionType.ordinal());
+        writeTag(deferred.classType.ordinal());
+        out.writeBoolean(deferred.classMethod);
+    }
+
+    void writeDataTable(DataTable table) throws IOException {
+        out.writeInt(table.kinds.length);
+        out.write(table.kinds);
+        for (int operand : table.operands) {
+            out.writeInt(operand);
+        }
+        out.writeInt(table.constants.length);
+        for (Object constant : table.constants) {
+            writeLiteral(constant);
+        }
+        writeExprs(Arrays.asList(table.children));
+        out.writeInt(table.lines.length);
+        for (int line : table.lines) {
+            out.writeInt(line);
+        }
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+
+    void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+
+        // A new string is announced by the next free index
+        out.writeInt(strings.size());
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,88 @@
+package com.enielsen.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// Stores parsed and resolved programs on disk, keyed by a hash of their source,
+// so running an unchanged script again can skip the whole front end. Entries
+// that cannot be read, e.g. from an older format, are simply recompiled.
+class CompileCache {
+    // Part of the key, bump when the AST or its binary format changes
+    private static final int FORMAT_VERSION = AstWriter.VERSION;
+
+    private final Path directory;
+    private final String variant;
+
+    CompileCache(Path directory, String variant) {
+        this.directory = directory;
+        this.variant = variant;
+    }
+
+    // $JLOX_CACHE_DIR, or ~/.cache/jlox
+    static Path defaultDirectory() {
+        String configured = System.getenv("JLOX_CACHE_DIR");
+        if (configured != null && !configured.isEmpty()) return Paths.get(configured);
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    List<Stmt> load(byte[] source) {
+        Path entry = entry(source);
+        if (!Files.isRegularFile(entry)) return null;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(entry))) {
+            return new AstReader(in).readProgram();
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // Unreadable or written by a different build, recompile and overwrite it
+            return null;
+        }
+    }
+
+    void store(byte[] source, List<Stmt> statements) {
+        Path entry = entry(source);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    new AstWriter(out).writeProgram(statements);
+                }
+                // Readers never see a half written entry
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | StackOverflowError e) {
+            // Caching is best effort, the program still runs
+        }
+    }
+
+    private Path entry(byte[] source) {
+        return directory.resolve(hash(FORMAT_VERSION + ":" + variant + ":", source) + ".ast");
+    }
+
+    // SHA-256 of the prefix and then the source, in hex
+    static String hash(String prefix, byte[] source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(prefix.getBytes());
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(source)) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.enielsen.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// The wire format between LoxClient and LoxDaemon. The client first sends its
+// working directory and command line, then its standard input as frames. The
+// daemon answers with output frames and finally the exit code. A frame is a
+// kind byte, a length and that many bytes.
+class DaemonProtocol {
+    static final byte STDIN = 0;
+    static final byte STDIN_CLOSED = 1;
+    static final byte STDOUT = 2;
+    static final byte STDERR = 3;
+    static final byte EXIT = 4;
+
+    private DaemonProtocol() {}
+
+    // Not Channels.newInputStream/newOutputStream, those lock the channel, so
+    // a blocked read would keep the other thread from writing
+    static DataInputStream input(SocketChannel channel) {
+        return new DataInputStream(new BufferedInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        }));
+    }
+
+    static DataOutputStream output(SocketChannel channel) {
+        return new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }));
+    }
+
+    static void writeFrame(DataOutputStream out, byte kind, byte[] data, int offset, int length)
+            throws IOException {
+        synchronized (out) {
+            out.writeByte(kind);
+            out.writeInt(length);
+            out.write(data, offset, length);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.enielsen.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Array and map literals nested in each other, as a few flat arrays instead of
+// a node per element, see Expr.Data. Generated data-as-code scripts are mostly
+// such literals, and as Expr.Array, Expr.Map and Expr.Literal nodes every
+// element costs a node, a list slot and every array or map a token as well.
+//
+// The nodes are in prefix order: an array is followed by its elements and a map
+// by its keys and values, alternately. Constants are stored once per table.
+// Elements that are not constants stay ordinary expressions, which the
+// resolver and interpreter handle as usual. Instead of the tokens the arrays
+// and maps had, a line table holds the first node of each line.
+final class DataTable {
+    static final byte CONSTANT = 0;
+    static final byte ARRAY = 1;
+    static final byte MAP = 2;
+    static final byte EXPR = 3;
+
+    final byte[] kinds;
+    // The index into constants or children, or the number of elements or entries
+    final int[] operands;
+    final Object[] constants;
+    final Expr[] children;
+    // Pairs of a node and its line, for the nodes that start a new line
+    final int[] lines;
+
+    DataTable(byte[] kinds, int[] operands, Object[] constants, Expr[] children, int[] lines) {
+        this.kinds = kinds;
+        this.operands = operands;
+        this.constants = constants;
+        this.children = children;
+        this.lines = lines;
+    }
+
+    // The line of an array or map node
+    int line(int node) {
+        int low = 0;
+        int high = lines.length / 2 - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lines[middle * 2] <= node) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return lines[low * 2 + 1];
+    }
+
+    // The literal as a table, or null if none of its elements is constant
+    static Expr.Data array(Token bracket, List<Expr> elements) {
+        if (!anyConstant(elements)) return null;
+
+        Builder builder = new Builder();
+        builder.container(ARRAY, elements.size(), bracket.line);
+        elements.forEach(builder::element);
+        return new Expr.Data(builder.build());
+    }
+
+    static Expr.Data map(Token brace, List<Expr> keys, List<Expr> values) {
+        if (!anyConstant(keys) && !anyConstant(values)) return null;
+
+        Builder builder = new Builder();
+        builder.container(MAP, keys.size(), brace.line);
+        for (int i = 0; i < keys.size(); i++) {
+            builder.element(keys.get(i));
+            builder.element(values.get(i));
+        }
+        return new Expr.Data(builder.build());
+    }
+
+    private static boolean anyConstant(List<Expr> elements) {
+        for (Expr element : elements) {
+            if (element instanceof Expr.Literal || element instanceof Expr.Data || isNegativeNumber(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // -1 parses as a negation, which can't fail on a number
+    private static boolean isNegativeNumber(Expr expr) {
+        if (!(expr instanceof Expr.Unary)) return false;
+        Expr.Unary unary = (Expr.Unary) expr;
+        return unary.operator.type == TokenType.MINUS && unary.right instanceof Expr.Literal &&
+                LoxNumber.isNumber(((Expr.Literal) unary.right).value);
+    }
+
+    private static final class Builder {
+        private byte[] kinds = new byte[16];
+        private int[] operands = new int[16];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private final List<Expr> children = new ArrayList<>();
+        private int[] lines = new int[8];
+        private int lineSize = 0;
+
+        void container(byte kind, int count, int line) {
+            line(size, line);
+            node(kind, count);
+        }
+
+        void element(Expr element) {
+            if (element instanceof Expr.Literal) {
+                node(CONSTANT, constant(((Expr.Literal) element).value));
+            } else if (isNegativeNumber(element)) {
+                node(CONSTANT, constant(LoxNumber.negate(((Expr.Literal) ((Expr.Unary) element).right).value)));
+            } else if (element instanceof Expr.Data) {
+                append(((Expr.Data) element).table);
+            } else {
+                node(EXPR, children.size());
+                children.add(element);
+            }
+        }
+
+        // A nested literal that was folded already
+        private void append(DataTable table) {
+            int base = size;
+            for (int i = 0; i < table.lines.length; i += 2) {
+                line(base + table.lines[i], table.lines[i + 1]);
+            }
+            for (int node = 0; node < table.kinds.length; node++) {
+                int operand = table.operands[node];
+                switch (table.kinds[node]) {
+                    case CONSTANT:
+                        operand = constant(table.constants[operand]);
+                        break;
+                    case EXPR:
+                        children.add(table.children[operand]);
+                        operand = children.size() - 1;
+                        break;
+                }
+                node(table.kinds[node], operand);
+            }
+        }
+
+        private int constant(Object value) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+            constantIndex.put(value, constants.size());
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        private void node(byte kind, int operand) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            kinds[size] = kind;
+            operands[size] = operand;
+            size++;
+        }
+
+        private void line(int node, int line) {
+            if (lineSize > 0 && lines[lineSize - 1] == line) return;
+            if (lineSize == lines.length) lines = Arrays.copyOf(lines, lineSize * 2);
+            lines[lineSize++] = node;
+            lines[lineSize++] = line;
+        }
+
+        DataTable build() {
+            return new DataTable(Arrays.copyOf(kinds, size), Arrays.copyOf(operands, size),
+                    constants.toArray(), children.toArray(new Expr[0]), Arrays.copyOf(lines, lineSize));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.enielsen.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// freeze(value): makes everything reachable from a value immutable, so that
+// forked interpreters, on whatever thread, share it as it is instead of
+// copying it, see SharedHeap.
+//
+// Instances, classes, arrays, maps, sets, sorted maps, priority queues and
+// string builders are frozen. Vectors and persistent maps never change
+// anyway, only what they hold is frozen.
+//
+// A function's closure may be the scope of code that is still running, whose
+// own variables must stay assignable. So a function gets a frozen copy of its
+// closure, up to the globals, and is replaced by a new function over it.
+// Functions that are keys of maps or elements of sets are found by identity
+// and can't be replaced; they are left as they are.
+//
+// Whatever is frozen has to be this interpreter's own: an object it has not
+// adopted yet is sealed and shared with other interpreters, which would see it
+// frozen too. So every reference is replaced by this interpreter's version of
+// it on the way.
+final class DeepFreeze {
+    private final Interpreter interpreter;
+    private final Deque<Object> pending = new ArrayDeque<>();
+    // Frozen copies of functions and scopes, so what was shared stays shared
+    private final Map<Object, Object> copies = new IdentityHashMap<>();
+
+    private DeepFreeze(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // Returns the frozen value, a function, vector or persistent map may be a
+    // new one
+    static Object freeze(Interpreter interpreter, Object value) {
+        DeepFreeze freeze = new DeepFreeze(interpreter);
+        value = freeze.own(value);
+        freeze.push(value);
+        while (!freeze.pending.isEmpty()) {
+            freeze.freeze(freeze.pending.pop());
+        }
+        return value;
+    }
+
+    static boolean isFrozen(Object value) {
+        if (value instanceof LoxInstance) return ((LoxInstance) value).frozen;
+        if (value instanceof LoxArray) return ((LoxArray) value).frozen;
+        if (value instanceof LoxMap) return ((LoxMap) value).frozen;
+        if (value instanceof LoxSet) return ((LoxSet) value).frozen;
+        if (value instanceof LoxSortedMap) return ((LoxSortedMap) value).frozen;
+        if (value instanceof LoxPriorityQueue) return ((LoxPriorityQueue) value).frozen;
+        if (value instanceof LoxStringBuilder) return ((LoxStringBuilder) value).frozen;
+        if (value instanceof Environment) return ((Environment) value).frozen;
+        return false;
+    }
+
+    // For restoring snapshots, the contents are frozen on their own
+    static void markFrozen(Object value) {
+        if (value instanceof LoxInstance) ((LoxInstance) value).frozen = true;
+        if (value instanceof LoxArray) ((LoxArray) value).frozen = true;
+        if (value instanceof LoxMap) ((LoxMap) value).frozen = true;
+        if (value instanceof LoxSet) ((LoxSet) value).frozen = true;
+        if (value instanceof LoxSortedMap) ((LoxSortedMap) value).frozen = true;
+        if (value instanceof LoxPriorityQueue) ((LoxPriorityQueue) value).frozen = true;
+        if (value instanceof LoxStringBuilder) ((LoxStringBuilder) value).frozen = true;
+        if (value instanceof Environment) ((Environment) value).frozen = true;
+    }
+
+    private void freeze(Object object) {
+        if (object instanceof Environment) {
+            Environment environment = (Environment) object;
+            // Only copies made by frozenCopy, globals are read through each
+            // interpreter's own globals
+            if (environment.frozen || environment.enclosing == null) return;
+            environment.frozen = true;
+            environment.values.replaceAll((name, value) -> own(value));
+            environment.values.values().forEach(this::push);
+            push(environment.enclosing);
+        } else if (object instanceof LoxInstance) {
+            LoxInstance instance = (LoxInstance) object;
+            if (instance.frozen) return;
+            instance.frozen = true;
+            instance.fields.replaceAll((name, value) -> own(value));
+            instance.fields.values().forEach(this::push);
+            push(instance.klass);
+            if (instance instanceof LoxClass) {
+                LoxClass klass = (LoxClass) instance;
+                push(klass.superClass);
+                klass.methods.replaceAll((name, method) -> (LoxFunction) own(method));
+            }
+        } else if (object instanceof LoxArray) {
+            LoxArray array = (LoxArray) object;
+            if (array.frozen) return;
+            array.frozen = true;
+            array.replaceReferences(this::own);
+            array.forEachReference(this::push);
+        } else if (object instanceof LoxMap) {
+            // Keys are already this interpreter's, see SharedHeap.copyOf
+            LoxMap map = (LoxMap) object;
+            if (map.frozen) return;
+            map.frozen = true;
+            map.replaceValues(this::own);
+            map.forEach((key, value) -> {
+                push(key);
+                push(value);
+            });
+        } else if (object instanceof LoxSet) {
+            LoxSet set = (LoxSet) object;
+            if (set.frozen) return;
+            set.frozen = true;
+            set.forEach(this::push);
+        } else if (object instanceof LoxSortedMap) {
+            LoxSortedMap map = (LoxSortedMap) object;
+            if (map.frozen) return;
+            map.frozen = true;
+            map.replaceValues(this::own);
+            if (map.comparator() != null) map.setComparator((LoxCallable) own(map.comparator()));
+            map.forEach((key, value) -> {
+                push(key);
+                push(value);
+            });
+        } else if (object instanceof LoxPriorityQueue) {
+            LoxPriorityQueue queue = (LoxPriorityQueue) object;
+            if (queue.frozen) return;
+            queue.frozen = true;
+            queue.replaceAll(this::own);
+            if (queue.comparator() != null) queue.setComparator((LoxCallable) own(queue.comparator()));
+            queue.forEach(this::push);
+        } else if (object instanceof LoxStringBuilder) {
+            ((LoxStringBuilder) object).frozen = true;
+        } else if (object instanceof LoxVector) {
+            ((LoxVector) object).forEach(this::push);
+        } else if (object instanceof LoxPersistentMap) {
+            ((LoxPersistentMap) object).forEach((key, value) -> {
+                push(key);
+                push(value);
+            });
+        }
+    }
+
+    // This interpreter's version of a value. A vector or persistent map can't
+    // be changed in place, a new version holds the versions of its contents.
+    private Object own(Object value) {
+        value = interpreter.adopt(value);
+        if (value instanceof LoxFunction) return frozenCopy((LoxFunction) value);
+        if (value instanceof LoxVector) {
+            LoxVector vector = (LoxVector) value;
+            for (int i = 0; i < vector.length(); i++) {
+                Object element = vector.element(i);
+                Object owned = own(element);
+                if (owned != element) vector = vector.set(i, owned);
+            }
+            return vector;
+        }
+        if (value instanceof LoxPersistentMap) {
+            LoxPersistentMap[] map = {(LoxPersistentMap) value};
+            ((LoxPersistentMap) value).forEach((key, entry) -> {
+                Object ownedKey = interpreter.adopt(key);
+                Object owned = own(entry);
+                if (ownedKey != key) map[0] = map[0].remove(key);
+                map[0] = map[0].put(ownedKey, owned);
+            });
+            return map[0];
+        }
+        return value;
+    }
+
+    // The function itself if its closure is the globals or frozen already
+    private LoxFunction frozenCopy(LoxFunction function) {
+        Object copy = copies.get(function);
+        if (copy != null) return (LoxFunction) copy;
+
+        Environment closure = frozenCopy(function.closure);
+        if (closure == function.closure) return function;
+        LoxFunction frozen = new LoxFunction(function.name, function.function, closure,
+                function.isInitializer, function.home);
+        copies.put(function, frozen);
+        return frozen;
+    }
+
+    // Its variables are frozen once it is taken from pending
+    private Environment frozenCopy(Environment environment) {
+        if (environment == null || environment.enclosing == null || environment.frozen) return environment;
+        Object copy = copies.get(environment);
+        if (copy != null) return (Environment) copy;
+
+        Environment frozen = new Environment(frozenCopy(environment.enclosing));
+        frozen.values.putAll(environment.values);
+        copies.put(environment, frozen);
+        push(frozen);
+        return frozen;
+    }
+
+    private void push(Object value) {
+        if (value != null && !isFrozen(value)) pending.push(value);
+    }
+}
@@ -0,0 +1,55 @@
+package com.enielsen.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The unparsed tokens of a function body skipped by a lazy Parser, together
+// with what the Resolver needs to resolve it later on its own.
+class DeferredBody {
+    final Token brace;
+    final List<Token> tokens;
+
+    // Filled in by the Resolver when it skips over the function
+    Resolver.FunctionType functionType = Resolver.FunctionType.FUNCTION;
+    Resolver.ClassType classType = Resolver.ClassType.NONE;
+    boolean classMethod = false;
+
+    DeferredBody(Token brace, List<Token> tokens) {
+        this.brace = brace;
+        this.tokens = tokens;
+    }
+
+    List<Stmt> parse(LoxContext context) {
+        List<Token> body = new ArrayList<>(tokens.size() + 2);
+        body.addAll(tokens);
+        Token end = body.isEmpty() ? brace : body.get(body.size() - 1);
+        body.add(new Token(TokenType.EOF, "", null, end.line));
+        return new Parser(context, body).parse();
+    }
+
+    // Parses and resolves the body of a function on its first call. Errors
+    // are reported like any other compile error and then fail the call.
+    static List<Stmt> complete(Expr.Function function, LoxContext context) {
+        synchronized (function) {
+            if (function.body != null) return function.body;
+
+            DeferredBody deferred = function.deferred;
+            // Collected separately so that only this body's errors fail the call
+            LoxContext compile = context.collecting();
+
+            List<Stmt> body = deferred.parse(compile);
+            if (!compile.hadError) {
+                new Resolver(compile).resolveDeferred(function, body);
+            }
+
+            context.replay(compile);
+            if (compile.hadError) {
+                throw new RuntimeError(deferred.brace, "Could not compile function body.");
+            }
+
+            function.body = body;
+            function.deferred = null;
+            return body;
+        }
+    }
+}
@@ -5,14 +5,32 @@ import java.util.Map;
 
 class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    final Map<String, Object> values = new HashMap<>();
+    // The sealed globals that the globals of a forked interpreter start from
+    private final Environment base;
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // A copy of the closure of a frozen function, see DeepFreeze. No code runs
+    // in it, and its variables can't be assigned.
+    boolean frozen = false;
 
     Environment() {
-        enclosing = null;
+        this(null, null);
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, null);
+    }
+
+    private Environment(Environment enclosing, Environment base) {
         this.enclosing = enclosing;
+        this.base = base;
+    }
+
+    // Globals that read through to base and keep their own copy of whatever
+    // is assigned
+    static Environment overlay(Environment base) {
+        return new Environment(null, base);
     }
 
     void define(String name, Object value) {
@@ -20,7 +38,7 @@ class Environment {
     }
 
     boolean isDefined(String name) {
-        return values.containsKey(name);
+        return values.containsKey(name) || (base != null && base.isDefined(name));
     }
 
     Object getAt(int distance, String name) {
@@ -28,7 +46,9 @@ class Environment {
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment environment = ancestor(distance);
+        if (environment.frozen) throw new RuntimeError(name, "Can't assign to a frozen variable.");
+        environment.values.put(name.lexeme, value);
     }
 
     Environment ancestor(int distance) {
@@ -40,8 +60,10 @@ class Environment {
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        for (Environment layer = this; layer != null; layer = layer.base) {
+            if (layer.values.containsKey(name.lexeme)) {
+                return layer.values.get(name.lexeme);
+            }
         }
         if (enclosing != null) return enclosing.get(name);
 
@@ -54,6 +76,12 @@ class Environment {
             return;
         }
 
+        // Copy on write, the base is shared with other interpreters
+        if (base != null && base.isDefined(name.lexeme)) {
+            values.put(name.lexeme, value);
+            return;
+        }
+
         if (enclosing != null) {
             enclosing.assign(name, value);
             return;
@@ -1,5 +1,6 @@
 package com.enielsen.lox;
 
+import java.io.IOException;
 import java.util.List;
 
 abstract class Expr {
@@ -9,9 +10,11 @@ abstract class Expr {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
     R visitArrayExpr(Array expr);
+    R visitMapExpr(Map expr);
     R visitGetExpr(Get expr);
     R visitIndexGetExpr(IndexGet expr);
     R visitIndexSetExpr(IndexSet expr);
+    R visitSliceExpr(Slice expr);
     R visitGroupingExpr(Grouping expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
@@ -21,9 +24,10 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
     R visitFunctionExpr(Function expr);
+    R visitDataExpr(Data expr);
   }
 
-  static class Assign extends Expr {
+  static final class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
       this.value = value;
@@ -33,6 +37,17 @@ abstract class Expr {
       return visitor.visitAssignExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitAssignExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(0);
+      out.writeToken(name);
+      out.writeExpr(value);
+      out.writeInt(depth);
+    }
+
     @Override
     public String toString() {
       return "AssignExpr";
@@ -40,9 +55,11 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
   }
 
-  static class Conditional extends Expr {
+  static final class Conditional extends Expr {
     Conditional(Expr condition, Expr thenBranch, Expr elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -53,6 +70,17 @@ abstract class Expr {
       return visitor.visitConditionalExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitConditionalExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(1);
+      out.writeExpr(condition);
+      out.writeExpr(thenBranch);
+      out.writeExpr(elseBranch);
+    }
+
     @Override
     public String toString() {
       return "ConditionalExpr";
@@ -63,7 +91,7 @@ abstract class Expr {
     final Expr elseBranch;
   }
 
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -74,6 +102,17 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitBinaryExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(2);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
     @Override
     public String toString() {
       return "BinaryExpr";
@@ -84,7 +123,7 @@ abstract class Expr {
     final Expr right;
   }
 
-  static class Call extends Expr {
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
       this.paren = paren;
@@ -95,6 +134,17 @@ abstract class Expr {
       return visitor.visitCallExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitCallExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(3);
+      out.writeExpr(callee);
+      out.writeToken(paren);
+      out.writeExprs(arguments);
+    }
+
     @Override
     public String toString() {
       return "CallExpr";
@@ -105,7 +155,7 @@ abstract class Expr {
     final List<Expr> arguments;
   }
 
-  static class Array extends Expr {
+  static final class Array extends Expr {
     Array(Token bracket, List<Expr> elements) {
       this.bracket = bracket;
       this.elements = elements;
@@ -115,6 +165,16 @@ abstract class Expr {
       return visitor.visitArrayExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitArrayExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(4);
+      out.writeToken(bracket);
+      out.writeExprs(elements);
+    }
+
     @Override
     public String toString() {
       return "ArrayExpr";
@@ -124,7 +184,39 @@ abstract class Expr {
     final List<Expr> elements;
   }
 
-  static class Get extends Expr {
+  static final class Map extends Expr {
+    Map(Token brace, List<Expr> keys, List<Expr> values) {
+      this.brace = brace;
+      this.keys = keys;
+      this.values = values;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMapExpr(this);
+    }
+
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitMapExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(5);
+      out.writeToken(brace);
+      out.writeExprs(keys);
+      out.writeExprs(values);
+    }
+
+    @Override
+    public String toString() {
+      return "MapExpr";
+    }
+
+    final Token brace;
+    final List<Expr> keys;
+    final List<Expr> values;
+  }
+
+  static final class Get extends Expr {
     Get(Expr object, Token name) {
       this.object = object;
       this.name = name;
@@ -134,6 +226,16 @@ abstract class Expr {
       return visitor.visitGetExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitGetExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(6);
+      out.writeExpr(object);
+      out.writeToken(name);
+    }
+
     @Override
     public String toString() {
       return "GetExpr";
@@ -143,7 +245,7 @@ abstract class Expr {
     final Token name;
   }
 
-  static class IndexGet extends Expr {
+  static final class IndexGet extends Expr {
     IndexGet(Expr indexee, Token bracket, Expr index) {
       this.indexee = indexee;
       this.bracket = bracket;
@@ -154,6 +256,17 @@ abstract class Expr {
       return visitor.visitIndexGetExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitIndexGetExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(7);
+      out.writeExpr(indexee);
+      out.writeToken(bracket);
+      out.writeExpr(index);
+    }
+
     @Override
     public String toString() {
       return "IndexGetExpr";
@@ -164,7 +277,7 @@ abstract class Expr {
     final Expr index;
   }
 
-  static class IndexSet extends Expr {
+  static final class IndexSet extends Expr {
     IndexSet(Expr indexee, Token bracket, Expr index, Expr value) {
       this.indexee = indexee;
       this.bracket = bracket;
@@ -176,6 +289,18 @@ abstract class Expr {
       return visitor.visitIndexSetExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitIndexSetExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(8);
+      out.writeExpr(indexee);
+      out.writeToken(bracket);
+      out.writeExpr(index);
+      out.writeExpr(value);
+    }
+
     @Override
     public String toString() {
       return "IndexSetExpr";
@@ -187,7 +312,42 @@ abstract class Expr {
     final Expr value;
   }
 
-  static class Grouping extends Expr {
+  static final class Slice extends Expr {
+    Slice(Expr indexee, Token bracket, Expr from, Expr to) {
+      this.indexee = indexee;
+      this.bracket = bracket;
+      this.from = from;
+      this.to = to;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSliceExpr(this);
+    }
+
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitSliceExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(9);
+      out.writeExpr(indexee);
+      out.writeToken(bracket);
+      out.writeExpr(from);
+      out.writeExpr(to);
+    }
+
+    @Override
+    public String toString() {
+      return "SliceExpr";
+    }
+
+    final Expr indexee;
+    final Token bracket;
+    final Expr from;
+    final Expr to;
+  }
+
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
     }
@@ -196,6 +356,15 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitGroupingExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(10);
+      out.writeExpr(expression);
+    }
+
     @Override
     public String toString() {
       return "GroupingExpr";
@@ -204,7 +373,7 @@ abstract class Expr {
     final Expr expression;
   }
 
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
     }
@@ -213,6 +382,15 @@ abstract class Expr {
       return visitor.visitLiteralExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitLiteralExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(11);
+      out.writeLiteral(value);
+    }
+
     @Override
     public String toString() {
       return "LiteralExpr";
@@ -221,7 +399,7 @@ abstract class Expr {
     final Object value;
   }
 
-  static class Logical extends Expr {
+  static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -232,6 +410,17 @@ abstract class Expr {
       return visitor.visitLogicalExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitLogicalExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(12);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
     @Override
     public String toString() {
       return "LogicalExpr";
@@ -242,7 +431,7 @@ abstract class Expr {
     final Expr right;
   }
 
-  static class Set extends Expr {
+  static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
       this.object = object;
       this.name = name;
@@ -253,6 +442,17 @@ abstract class Expr {
       return visitor.visitSetExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitSetExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(13);
+      out.writeExpr(object);
+      out.writeToken(name);
+      out.writeExpr(value);
+    }
+
     @Override
     public String toString() {
       return "SetExpr";
@@ -263,7 +463,7 @@ abstract class Expr {
     final Expr value;
   }
 
-  static class This extends Expr {
+  static final class This extends Expr {
     This(Token keyword) {
       this.keyword = keyword;
     }
@@ -272,15 +472,27 @@ abstract class Expr {
       return visitor.visitThisExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitThisExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(14);
+      out.writeToken(keyword);
+      out.writeInt(depth);
+    }
+
     @Override
     public String toString() {
       return "ThisExpr";
     }
 
     final Token keyword;
+
+    int depth = -1;
   }
 
-  static class Super extends Expr {
+  static final class Super extends Expr {
     Super(Token keyword, Token method) {
       this.keyword = keyword;
       this.method = method;
@@ -290,6 +502,17 @@ abstract class Expr {
       return visitor.visitSuperExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitSuperExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(15);
+      out.writeToken(keyword);
+      out.writeToken(method);
+      out.writeInt(depth);
+    }
+
     @Override
     public String toString() {
       return "SuperExpr";
@@ -297,9 +520,11 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+
+    int depth = -1;
   }
 
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
     Unary(Token operator, Expr right, boolean postfix) {
       this.operator = operator;
       this.right = right;
@@ -310,6 +535,17 @@ abstract class Expr {
       return visitor.visitUnaryExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitUnaryExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(16);
+      out.writeToken(operator);
+      out.writeExpr(right);
+      out.writeBoolean(postfix);
+    }
+
     @Override
     public String toString() {
       return "UnaryExpr";
@@ -320,7 +556,7 @@ abstract class Expr {
     final boolean postfix;
   }
 
-  static class Variable extends Expr {
+  static final class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
     }
@@ -329,32 +565,178 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitVariableExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(17);
+      out.writeToken(name);
+      out.writeInt(depth);
+    }
+
     @Override
     public String toString() {
       return "VariableExpr";
     }
 
     final Token name;
+
+    int depth = -1;
   }
 
-  static class Function extends Expr {
-    Function(List<Token> parameters, List<Stmt> body) {
+  static final class Function extends Expr {
+    Function(List<Token> parameters) {
       this.parameters = parameters;
-      this.body = body;
     }
 
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionExpr(this);
     }
 
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitFunctionExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(18);
+      out.writeTokens(parameters);
+      out.writeStmts(body);
+      out.writeDeferred(deferred);
+    }
+
     @Override
     public String toString() {
       return "FunctionExpr";
     }
 
     final List<Token> parameters;
-    final List<Stmt> body;
+
+    volatile List<Stmt> body = null;
+    DeferredBody deferred = null;
+  }
+
+  static final class Data extends Expr {
+    Data(DataTable table) {
+      this.table = table;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitDataExpr(this);
+    }
+
+    Object evaluate(Interpreter interpreter) {
+      return interpreter.visitDataExpr(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(19);
+      out.writeDataTable(table);
+    }
+
+    @Override
+    public String toString() {
+      return "DataExpr";
+    }
+
+    final DataTable table;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  abstract Object evaluate(Interpreter interpreter);
+
+  abstract void write(AstWriter out) throws IOException;
+
+  static Expr read(AstReader in, int tag) throws IOException {
+    switch (tag) {
+      case 0: {
+        Assign node = new Assign(in.readToken(), in.readExpr());
+        node.depth = in.readInt();
+        return node;
+      }
+      case 1: {
+        Conditional node = new Conditional(in.readExpr(), in.readExpr(), in.readExpr());
+        return node;
+      }
+      case 2: {
+        Binary node = new Binary(in.readExpr(), in.readToken(), in.readExpr());
+        return node;
+      }
+      case 3: {
+        Call node = new Call(in.readExpr(), in.readToken(), in.readExprs());
+        return node;
+      }
+      case 4: {
+        Array node = new Array(in.readToken(), in.readExprs());
+        return node;
+      }
+      case 5: {
+        Map node = new Map(in.readToken(), in.readExprs(), in.readExprs());
+        return node;
+      }
+      case 6: {
+        Get node = new Get(in.readExpr(), in.readToken());
+        return node;
+      }
+      case 7: {
+        IndexGet node = new IndexGet(in.readExpr(), in.readToken(), in.readExpr());
+        return node;
+      }
+      case 8: {
+        IndexSet node = new IndexSet(in.readExpr(), in.readToken(), in.readExpr(), in.readExpr());
+        return node;
+      }
+      case 9: {
+        Slice node = new Slice(in.readExpr(), in.readToken(), in.readExpr(), in.readExpr());
+        return node;
+      }
+      case 10: {
+        Grouping node = new Grouping(in.readExpr());
+        return node;
+      }
+      case 11: {
+        Literal node = new Literal(in.readLiteral());
+        return node;
+      }
+      case 12: {
+        Logical node = new Logical(in.readExpr(), in.readToken(), in.readExpr());
+        return node;
+      }
+      case 13: {
+        Set node = new Set(in.readExpr(), in.readToken(), in.readExpr());
+        return node;
+      }
+      case 14: {
+        This node = new This(in.readToken());
+        node.depth = in.readInt();
+        return node;
+      }
+      case 15: {
+        Super node = new Super(in.readToken(), in.readToken());
+        node.depth = in.readInt();
+        return node;
+      }
+      case 16: {
+        Unary node = new Unary(in.readToken(), in.readExpr(), in.readBoolean());
+        return node;
+      }
+      case 17: {
+        Variable node = new Variable(in.readToken());
+        node.depth = in.readInt();
+        return node;
+      }
+      case 18: {
+        Function node = new Function(in.readTokens());
+        node.body = in.readStmts();
+        node.deferred = in.readDeferred();
+        return node;
+      }
+      case 19: {
+        Data node = new Data(in.readDataTable());
+        return node;
+      }
+    }
+    throw new IOException("Unknown Expr tag " + tag + ".");
+  }
 }
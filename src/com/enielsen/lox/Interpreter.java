@@ -1,37 +1,90 @@
 package com.enielsen.lox;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+import java.util.StringJoiner;
+
+// Nodes call back into the visit methods directly through Expr.evaluate and
+// Stmt.execute, so the Interpreter does not implement the Visitor interfaces.
+final class Interpreter {
+    final LoxContext context;
+    Environment globals;
+    private Environment environment;
     private Object prevResult = null;
-
-    Interpreter() {
+    // Set once this interpreter has been forked or is a fork, see fork()
+    private SharedHeap heap = null;
+    private Environment sealedGlobals = null;
+    // Relative imports are resolved against this
+    Path directory;
+    // Functions created by a module's interpreter always run in it, see LoxModule
+    private final LoxModule module;
+
+    Interpreter(LoxContext context) {
+        this(context, Paths.get(""), null);
+    }
+
+    Interpreter(LoxContext context, Path directory, LoxModule module) {
+        this.context = context;
+        this.globals = new Environment();
+        this.environment = globals;
+        this.directory = directory;
+        this.module = module;
         NativeFunctions.defineNatives(globals);
     }
 
+    private Interpreter(LoxContext context, Environment base, SharedHeap baseHeap, Path directory) {
+        this.context = context;
+        this.globals = Environment.overlay(base);
+        this.environment = globals;
+        this.heap = new SharedHeap(baseHeap, globals);
+        this.sealedGlobals = base;
+        this.directory = directory;
+        this.module = null;
+    }
+
+    // Returns an interpreter that starts from the current global state without
+    // running or copying anything. The state is sealed and shared; this
+    // interpreter and its forks copy an object the first time they use it, so
+    // none of them sees what the others change. Not while code is running.
+    Interpreter fork(LoxContext context) {
+        if (heap == null || !globals.values.isEmpty() || !heap.isEmpty()) {
+            // Changed since it was last sealed, go on from a new seal like a fork
+            SharedHeap.seal(globals, heap == null ? Collections.emptyList() : heap.copies());
+            sealedGlobals = globals;
+            globals = Environment.overlay(sealedGlobals);
+            environment = globals;
+            heap = new SharedHeap(heap, globals);
+        }
+        return new Interpreter(context, sealedGlobals, heap.base(), directory);
+    }
+
+    // Every value read from a variable, field or element goes through here
+    Object adopt(Object value) {
+        return heap == null ? value : heap.adopt(value);
+    }
+
     void interpret(List<Stmt> statements) {
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            run(statements);
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            context.runtimeError(error);
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    // Like interpret(), but leaves runtime errors to the caller
+    void run(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            execute(statement);
+        }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private void execute(Stmt stmt) {
+        stmt.execute(this);
     }
 
     void executeBlock(List<Stmt> statements, Environment environment) {
@@ -47,20 +100,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
     }
 
+    // The value of the last expression statement, like the REPL prints
+    Object lastResult() {
+        return prevResult;
+    }
+
     void printExpressionResult() {
         if (prevResult != null) {
-            System.out.println(stringify(prevResult));
+            context.out.println(stringify(prevResult));
         }
     }
 
     /* Expression visitor implementations */
 
-    @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
     }
 
-    @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
@@ -73,7 +129,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return evaluate(expr.right);
     }
 
-    @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
 
@@ -81,18 +136,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
+        if (((LoxInstance) object).frozen) {
+            throw new RuntimeError(expr.name, "Can't change a frozen instance.");
+        }
+
         Object value = evaluate(expr.value);
         ((LoxInstance) object).set(expr.name, value);
         return value;
     }
 
-    @Override
     public Object visitIndexSetExpr(Expr.IndexSet expr) {
         Object indexee = evaluate(expr.indexee);
 
         if (!(indexee instanceof LoxIndexable)) {
             throw new RuntimeError(expr.bracket, "Variable is not indexable.");
         }
+        if (DeepFreeze.isFrozen(indexee)) {
+            throw new RuntimeError(expr.bracket, "Can't change a frozen value.");
+        }
 
         Object index = evaluate(expr.index);
         Object value = evaluate(expr.value);
@@ -100,18 +161,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return value;
     }
 
-    @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return lookupVariable(expr.keyword, expr.depth);
     }
 
-    @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superClass = ((LoxClass) environment.getAt(distance, "super"));
+        int distance = expr.depth;
+        LoxClass superClass = ((LoxClass) adopt(environment.getAt(distance, "super")));
 
         // "this" is always one level nearer than "super"'s environment.
-        LoxInstance receiver = (LoxInstance)environment.getAt(distance - 1, "this");
+        LoxInstance receiver = (LoxInstance) adopt(environment.getAt(distance - 1, "this"));
 
         LoxFunction method = superClass.findMethod(receiver, expr.method.lexeme);
         if (method == null) {
@@ -122,13 +181,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return method;
     }
 
-    @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
     }
 
 
-    @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
 
@@ -137,19 +194,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 return !isTruthy(right);
             case MINUS:
                 checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return LoxNumber.negate(right);
             case PLUS_PLUS: {
                 if (!(expr.right instanceof Expr.Variable)) {
                     throw new RuntimeError(expr.operator, "Operand of increment operation must be a variable");
                 }
                 checkNumberOperand(expr.operator, right);
-                double value = (double) right;
-                Expr.Variable var = ((Expr.Variable) expr.right);
-                environment.assign(var.name, value + 1);
+                Object value = LoxNumber.add(right, 1L);
+                assignVariable((Expr.Variable) expr.right, value);
                 if (expr.postfix) {
-                    return value;
+                    return right;
                 } else {
-                    return value + 1;
+                    return value;
                 }
             }
             case MINUS_MINUS: {
@@ -158,13 +214,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                     throw new RuntimeError(expr.operator, "Operand of decrement operation must be a variable");
                 }
                 checkNumberOperand(expr.operator, right);
-                double value = (double) right;
-                Expr.Variable var = ((Expr.Variable) expr.right);
-                environment.assign(var.name, value - 1);
+                Object value = LoxNumber.subtract(right, 1L);
+                assignVariable((Expr.Variable) expr.right, value);
                 if (expr.postfix) {
-                    return value;
+                    return right;
                 } else {
-                    return value - 1;
+                    return value;
                 }
             }
         }
@@ -173,21 +228,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookupVariable(expr.name, expr);
+        return lookupVariable(expr.name, expr.depth);
+    }
+
+    private Object lookupVariable(Token name, int distance) {
+        if (distance >= 0) {
+            return adopt(environment.getAt(distance, name.lexeme));
+        } else {
+            return adopt(globals.get(name));
+        }
     }
 
-    private Object lookupVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private void assignVariable(Expr.Variable variable, Object value) {
+        if (variable.depth >= 0) {
+            environment.assignAt(variable.depth, variable.name, value);
         } else {
-            return globals.get(name);
+            globals.assign(variable.name, value);
         }
     }
 
-    @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
@@ -195,16 +255,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         switch (expr.operator.type) {
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                if (left instanceof Long && right instanceof Long) return (long)left > (long)right;
+                return LoxNumber.toDouble(left) > LoxNumber.toDouble(right);
             case GREATER_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                if (left instanceof Long && right instanceof Long) return (long)left >= (long)right;
+                return LoxNumber.toDouble(left) >= LoxNumber.toDouble(right);
             case LESS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                if (left instanceof Long && right instanceof Long) return (long)left < (long)right;
+                return LoxNumber.toDouble(left) < LoxNumber.toDouble(right);
             case LESS_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                if (left instanceof Long && right instanceof Long) return (long)left <= (long)right;
+                return LoxNumber.toDouble(left) <= LoxNumber.toDouble(right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
@@ -212,10 +276,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+                return LoxNumber.subtract(left, right);
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) {
+                    return LoxNumber.add(left, right);
                 }
 
                 if (left instanceof String) {
@@ -228,17 +292,34 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
                 checkDivisionByZero(expr.operator, right);
-                return (double)left / (double)right;
+                return LoxNumber.toDouble(left) / LoxNumber.toDouble(right);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                return LoxNumber.multiply(left, right);
+
+            // Bitwise, on integers. Like Java, shifts only use the low 6 bits
+            // of the distance.
+            case AMPERSAND:
+                checkIntegerOperands(expr.operator, left, right);
+                return LoxNumber.toLong(left) & LoxNumber.toLong(right);
+            case PIPE:
+                checkIntegerOperands(expr.operator, left, right);
+                return LoxNumber.toLong(left) | LoxNumber.toLong(right);
+            case CARET:
+                checkIntegerOperands(expr.operator, left, right);
+                return LoxNumber.toLong(left) ^ LoxNumber.toLong(right);
+            case LESS_LESS:
+                checkIntegerOperands(expr.operator, left, right);
+                return LoxNumber.toLong(left) << LoxNumber.toLong(right);
+            case GREATER_GREATER:
+                checkIntegerOperands(expr.operator, left, right);
+                return LoxNumber.toLong(left) >> LoxNumber.toLong(right);
         }
 
         // Unreachable
         return null;
     }
 
-    @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
@@ -263,59 +344,115 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
     }
 
-    @Override
     public Object visitIndexGetExpr(Expr.IndexGet expr) {
         Object indexee = evaluate(expr.indexee);
         Object index = evaluate(expr.index);
         if (indexee instanceof LoxIndexable) {
-            return ((LoxIndexable) indexee).get(expr.bracket, index);
+            return adopt(((LoxIndexable) indexee).get(expr.bracket, index));
         }
         return null;
     }
 
-    @Override
+    public Object visitSliceExpr(Expr.Slice expr) {
+        Object indexee = evaluate(expr.indexee);
+        Object from = expr.from == null ? null : evaluate(expr.from);
+        Object to = expr.to == null ? null : evaluate(expr.to);
+        if (indexee instanceof LoxIndexable) {
+            return ((LoxIndexable) indexee).slice(expr.bracket, from, to);
+        }
+        if (indexee instanceof String) {
+            String string = (String) indexee;
+            int start = LoxIndexable.bound(expr.bracket, from, string.length(), 0);
+            int end = LoxIndexable.bound(expr.bracket, to, string.length(), string.length());
+            return start < end ? string.substring(start, end) : "";
+        }
+        throw new RuntimeError(expr.bracket, "Only arrays and strings can be sliced.");
+    }
+
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            Object result = ((LoxInstance) object).get(expr.name);
+            Object result = adopt(((LoxInstance) object).get(expr.name));
             if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
                 result = ((LoxFunction) result).call(this, null);
             }
             return result;
         }
-        if (object instanceof LoxArray) {
-            return ((LoxArray) object).getMethod(expr.name);
+        if (object instanceof NativeClass.Instance) {
+            return ((NativeClass.Instance) object).getMethod(expr.name);
+        }
+        if (object instanceof String) {
+            return LoxString.getMethod((String) object, expr.name);
+        }
+        if (object instanceof LoxModule) {
+            return ((LoxModule) object).in(context).get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
-    @Override
     public Object visitFunctionExpr(Expr.Function expr) {
-        return new LoxFunction(null, expr, environment, false);
+        return new LoxFunction(null, expr, environment, false, home());
     }
 
-    @Override
     public Object visitArrayExpr(Expr.Array expr) {
-        return new LoxArray(expr.elements.stream()
-                .map(this::evaluate)
-                .collect(Collectors.toList()));
+        LoxArray array = new LoxArray();
+        for (Expr element : expr.elements) {
+            array.add(evaluate(element));
+        }
+        return array;
+    }
+
+    public Object visitMapExpr(Expr.Map expr) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            map.put(evaluate(expr.keys.get(i)), evaluate(expr.values.get(i)));
+        }
+        return map;
+    }
+
+    public Object visitDataExpr(Expr.Data expr) {
+        return buildData(expr.table, new int[1]);
+    }
+
+    // Builds the node at next[0] and moves next[0] past it
+    private Object buildData(DataTable table, int[] next) {
+        int node = next[0]++;
+        int operand = table.operands[node];
+        switch (table.kinds[node]) {
+            case DataTable.CONSTANT:
+                return table.constants[operand];
+            case DataTable.EXPR:
+                return evaluate(table.children[operand]);
+            case DataTable.ARRAY: {
+                LoxArray array = new LoxArray();
+                for (int i = 0; i < operand; i++) {
+                    array.add(buildData(table, next));
+                }
+                return array;
+            }
+            default: {
+                LoxMap map = new LoxMap();
+                for (int i = 0; i < operand; i++) {
+                    Object key = buildData(table, next);
+                    map.put(key, buildData(table, next));
+                }
+                return map;
+            }
+        }
     }
 
-    @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.name, value);
         } else {
             globals.assign(expr.name, value);
         }
         return value;
     }
 
-    @Override
     public Object visitConditionalExpr(Expr.Conditional expr) {
         if (isTruthy(evaluate(expr.condition))) {
             return evaluate(expr.thenBranch);
@@ -326,20 +463,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     /* Statement Visitor implementations */
 
-    @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         prevResult = evaluate(stmt.expression);
         return null;
     }
 
-    @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt.name.lexeme, stmt.function, environment, false);
+        LoxFunction function = new LoxFunction(stmt.name.lexeme, stmt.function, environment, false, home());
         environment.define(stmt.name.lexeme, function);
         return null;
     }
 
-    @Override
     public Void visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.thenBranch);
@@ -349,15 +483,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        context.out.println(stringify(value));
         prevResult = null;
         return null;
     }
 
-    @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
@@ -365,7 +497,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         throw new ReturnJump(value);
     }
 
-    @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
@@ -377,7 +508,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
             try {
@@ -389,19 +519,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         executeBlock(stmt.statements, new Environment(environment));
         prevResult = null;
         return null;
     }
 
-    @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         throw new BreakJump();
     }
 
-    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        environment.define(stmt.name.lexeme, LoxModule.load(this, stmt.path));
+        prevResult = null;
+        return null;
+    }
+
     public Void visitClassStmt(Stmt.Class stmt) {
         environment.define(stmt.name.lexeme, null);
 
@@ -421,7 +554,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             LoxFunction function = new LoxFunction(
                     stmt.name.lexeme +"." + method.name.lexeme,
                     method.function, environment,
-                    method.name.lexeme.equals("init"));
+                    method.name.lexeme.equals("init"), home());
             classMethods.put(method.name.lexeme, function);
         }
 
@@ -432,7 +565,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             LoxFunction function = new LoxFunction(
                     stmt.name.lexeme +"." + method.name.lexeme,
                     method.function, environment,
-                    method.name.lexeme.equals("init"));
+                    method.name.lexeme.equals("init"), home());
             methods.put(method.name.lexeme, function);
         }
         LoxClass klass = new LoxClass(metaclass, ((LoxClass) superClass), stmt.name.lexeme, methods);
@@ -447,6 +580,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     /* Helper methods */
 
+    private LoxModule home() {
+        return module;
+    }
+
     private boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
@@ -455,25 +592,31 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
+        if (LoxNumber.isNumber(operand)) return;
 
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
     private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+        if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) return;
 
         throw new RuntimeError(operator, "Operators must be numbers.");
     }
 
+    private void checkIntegerOperands(Token operator, Object left, Object right) {
+        if (LoxNumber.isInteger(left) && LoxNumber.isInteger(right)) return;
+
+        throw new RuntimeError(operator, "Operands must be integers.");
+    }
+
     private void checkDivisionByZero(Token operator, Object denominator) {
-        if ((double)denominator == 0) {
+        if (LoxNumber.toDouble(denominator) == 0) {
             throw new RuntimeError(operator, "Cannot divide by zero.");
         }
     }
 
     private Object evaluate(Expr expr) {
-        Object res = expr.accept(this);
+        Object res = expr.evaluate(this);
         this.prevResult = res;
         return res;
     }
@@ -483,6 +626,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         // nil is only equal to nil
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // 1 == 1.0
+        if (LoxNumber.isNumber(a) && LoxNumber.isNumber(b)) return LoxNumber.same(a, b);
 
         return a.equals(b);
     }
@@ -500,11 +645,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
 
         if (object instanceof LoxArray) {
-            List<String> elementStrings = ((LoxArray) object).elements
-                    .stream()
-                    .map(this::stringify)
-                    .collect(Collectors.toList());
-            return "[" + String.join(", ", elementStrings) + "]";
+            LoxArray array = (LoxArray) object;
+            StringJoiner elements = new StringJoiner(", ", "[", "]");
+            for (int i = 0; i < array.length(); i++) {
+                elements.add(stringify(array.element(i)));
+            }
+            return elements.toString();
+        }
+
+        if (object instanceof LoxMap) {
+            StringJoiner entries = new StringJoiner(", ", "{", "}");
+            ((LoxMap) object).forEach((key, value) -> entries.add(stringify(key) + ": " + stringify(value)));
+            return entries.toString();
+        }
+
+        if (object instanceof LoxSortedMap) {
+            StringJoiner entries = new StringJoiner(", ", "{", "}");
+            ((LoxSortedMap) object).forEach((key, value) -> entries.add(stringify(key) + ": " + stringify(value)));
+            return entries.toString();
+        }
+
+        if (object instanceof LoxPersistentMap) {
+            StringJoiner entries = new StringJoiner(", ", "{", "}");
+            ((LoxPersistentMap) object).forEach((key, value) -> entries.add(stringify(key) + ": " + stringify(value)));
+            return entries.toString();
+        }
+
+        if (object instanceof LoxVector) {
+            StringJoiner elements = new StringJoiner(", ", "[", "]");
+            ((LoxVector) object).forEach(element -> elements.add(stringify(element)));
+            return elements.toString();
+        }
+
+        if (object instanceof LoxSet) {
+            StringJoiner elements = new StringJoiner(", ", "{", "}");
+            ((LoxSet) object).forEach(element -> elements.add(stringify(element)));
+            return elements.toString();
+        }
+
+        if (object instanceof LoxPriorityQueue) {
+            StringJoiner elements = new StringJoiner(", ", "[", "]");
+            ((LoxPriorityQueue) object).forEach(element -> elements.add(stringify(element)));
+            return elements.toString();
         }
 
         return object.toString();
@@ -1,95 +1,204 @@
 package com.enielsen.lox;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 
+// The jlox command line. Each launch runs in a LoxContext of its own.
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private final LoxContext context;
+    // Relative paths on the command line are resolved against this
+    private final Path directory;
+    private boolean streaming = false;
+    private boolean caching = false;
+    private String snapshotPath = null;
+
+    private Lox(LoxContext context, Path directory) {
+        this.context = context;
+        this.directory = directory;
+        // The prompt imports relative to where it was started
+        context.interpreter.directory = directory;
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        if (args.length == 2 && args[0].equals("--daemon")) {
+            LoxDaemon.serve(Paths.get(args[1]));
+            return;
         }
-    }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        int status = launch(new LoxContext(), args, Paths.get(""));
+        if (status != 0) System.exit(status);
+    }
 
-        // indicate an error in the exit code
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+    // Runs a jlox command line and returns its exit code
+    static int launch(LoxContext context, String[] args, Path directory) throws IOException {
+        return new Lox(context, directory).launch(args);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private int launch(String[] args) throws IOException {
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("--")) {
+            switch (args[arg++]) {
+                case "--lazy":
+                    // Parse function bodies on their first call
+                    context.lazyParsing = true;
+                    break;
+                case "--stream":
+                    // Execute each top-level declaration as soon as it is parsed
+                    streaming = true;
+                    break;
+                case "--parallel":
+                    // Parse and resolve top-level declarations on all cores
+                    context.parallel = true;
+                    break;
+                case "--cache":
+                    // Reuse compiled programs from $JLOX_CACHE_DIR or ~/.cache/jlox
+                    caching = true;
+                    break;
+                case "--snapshot":
+                    // Save the globals defined by the script when it finishes
+                    if (arg == args.length) {
+                        usage();
+                        return 0;
+                    }
+                    snapshotPath = args[arg++];
+                    break;
+                case "--restore":
+                    // Start from the globals of a saved snapshot
+                    if (arg == args.length) {
+                        usage();
+                        return 0;
+                    }
+                    String snapshot = args[arg++];
+                    try (InputStream input = new BufferedInputStream(Files.newInputStream(resolve(snapshot)))) {
+                        Snapshot.restore(input, context.interpreter.globals);
+                    } catch (IOException e) {
+                        // Missing, or saved by another version of jlox
+                        context.err.println("Could not restore snapshot '" + snapshot + "': " + reason(e));
+                        return 74;
+                    }
+                    break;
+                default:
+                    usage();
+                    return 0;
+            }
+        }
 
-        for (;;) {
-            System.out.print("> ");
-            run(reader.readLine());
-            if (!hadRuntimeError) interpreter.printExpressionResult();
-            hadError = false;
+        if (args.length - arg > 1 || (snapshotPath != null && args.length - arg == 0)) {
+            usage();
+            return 0;
+        } else if (args.length - arg == 1) {
+            if (streaming) {
+                return streamFile(args[arg]);
+            } else {
+                return runFile(args[arg]);
+            }
+        } else {
+            return runPrompt();
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        // Stop if there was a syntax error
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+    private void usage() {
+        context.out.println("Usage: jlox [--lazy] [--stream] [--parallel] [--cache] " +
+                "[--snapshot file] [--restore file] [script]");
+        context.out.println("       jlox --daemon socket");
+    }
 
-        if (hadError) return;
+    private static String reason(IOException e) {
+        if (e instanceof NoSuchFileException) return "No such file.";
+        if (e instanceof EOFException) return "The file is cut short.";
+        return e.getMessage();
+    }
 
-        interpreter.interpret(statements);
+    private Path resolve(String path) {
+        return directory.resolve(path);
     }
 
-    static void error(int line, String message) {
-        reportError(line, "", message);
+    // A script imports relative to where it is
+    private void enter(Path script) {
+        Path parent = script.toAbsolutePath().getParent();
+        if (parent != null) context.interpreter.directory = parent;
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            reportError(token.line, " at end", message);
+    private int runFile(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(resolve(path));
+        enter(resolve(path));
+        if (caching) {
+            CompileCache cache = new CompileCache(CompileCache.defaultDirectory(),
+                    context.lazyParsing ? "lazy" : "eager");
+            List<Stmt> statements = cache.load(bytes);
+            if (statements == null) {
+                statements = context.compile(new String(bytes, Charset.defaultCharset()));
+                if (statements != null) cache.store(bytes, statements);
+            }
+            if (statements != null) context.interpreter.interpret(statements);
         } else {
-            reportError(token.line, " at '" + token.lexeme + "'", message);
+            context.run(new String(bytes, Charset.defaultCharset()));
         }
+
+        if (!context.hadError && !context.hadRuntimeError) saveSnapshot();
+        return exitCode();
     }
 
-    static void warning(Token token, String message) {
-        reportWarning(token.line, " at '" + token.lexeme + "'", message);
+    private int streamFile(String path) throws IOException {
+        enter(resolve(path));
+        try (Reader reader = Files.newBufferedReader(resolve(path), Charset.defaultCharset())) {
+            Parser parser = new Parser(context, new TokenStream(new Scanner(context, reader)), context.lazyParsing);
+            Resolver resolver = new Resolver(context);
+
+            // Stop at the first error, like run() but without having seen the rest of the file
+            while (parser.hasNext() && !context.hadError && !context.hadRuntimeError) {
+                List<Stmt> statement = Collections.singletonList(parser.next());
+                if (context.hadError) break;
+
+                resolver.resolve(statement);
+                if (context.hadError) break;
+
+                context.interpreter.interpret(statement);
+            }
+        }
+
+        if (!context.hadError && !context.hadRuntimeError) saveSnapshot();
+        return exitCode();
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    // indicate an error in the exit code
+    private int exitCode() {
+        if (context.hadError) return 65;
+        if (context.hadRuntimeError) return 70;
+        return 0;
     }
 
-    static private void reportError(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    private void saveSnapshot() throws IOException {
+        if (snapshotPath == null) return;
+
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(resolve(snapshotPath)))) {
+            Snapshot.write(context.interpreter.globals, output);
+        }
     }
 
-    static private void reportWarning(int line, String where, String message) {
-        System.err.println("[line " + line + "] Warning" + where + ": " + message);
+    private int runPrompt() throws IOException {
+        for (;;) {
+            context.out.print("> ");
+            context.out.flush();
+            String line = context.input.readLine();
+            if (line == null) return 0;
+
+            context.run(line);
+            if (!context.hadRuntimeError) context.interpreter.printExpressionResult();
+            context.hadError = false;
+            context.firstErrorLine = -1;
+        }
     }
 }
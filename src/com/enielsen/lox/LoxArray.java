@@ -1,159 +1,360 @@
 package com.enielsen.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 
-// TODO: native "classes" should maybe be handled more generically
-class LoxArray implements LoxIndexable {
+class LoxArray implements LoxIndexable, NativeClass.Instance {
 
-    final List<Object> elements;
-    private final Map<String, LoxCallable> methods;
+    // The elements are kept in the narrowest of these that holds all of them,
+    // the others are null. An array of integers, floating point numbers or
+    // booleans is stored unboxed until something else is put into it, from
+    // then on it stays generic. An empty array picks again on its first element.
+    //
+    // The storage is a ring buffer: element i is at slot head + i, wrapping
+    // around at the end, so both ends can grow and shrink in constant time.
+    private long[] integers = null;
+    private double[] numbers = null;
+    private boolean[] booleans = null;
+    private Object[] objects = EMPTY;
+    private int head = 0;
+    private int size = 0;
+    // The storage may belong to slices of this array, or this array may be a
+    // slice, see slice(). It is copied before the first change.
+    private boolean shared = false;
+
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
 
     private final static String BOUNDS_ERROR_MSG = "Array index out of bounds.";
+    private final static Object[] EMPTY = new Object[0];
+
+    LoxArray() {
+    }
 
     LoxArray(List<Object> elements) {
-        this.elements = elements;
-        methods = createMethods(this);
+        this();
+        elements.forEach(this::add);
     }
 
+    // size copies of fill, stored unboxed if fill is a number or boolean
+    static LoxArray filled(int size, Object fill) {
+        LoxArray array = new LoxArray();
+        if (size == 0) return array;
 
-    private static Map<String, LoxCallable> createMethods(LoxArray array) {
-        Map<String, LoxCallable> methods = new HashMap<>();
-        methods.put("add", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        if (fill instanceof Long) {
+            array.integers = new long[size];
+            Arrays.fill(array.integers, (Long) fill);
+            array.objects = null;
+        } else if (fill instanceof Double) {
+            array.numbers = new double[size];
+            Arrays.fill(array.numbers, (Double) fill);
+            array.objects = null;
+        } else if (fill instanceof Boolean) {
+            array.booleans = new boolean[size];
+            Arrays.fill(array.booleans, (Boolean) fill);
+            array.objects = null;
+        } else {
+            array.objects = new Object[size];
+            Arrays.fill(array.objects, fill);
+        }
+        array.size = size;
+        return array;
+    }
 
-            @Override
-            public boolean variadic() {
-                return true;
-            }
+    // A copy with its own storage, the elements themselves are shared
+    LoxArray copy() {
+        LoxArray copy = new LoxArray();
+        copy.integers = integers;
+        copy.numbers = numbers;
+        copy.booleans = booleans;
+        copy.objects = objects;
+        copy.head = head;
+        copy.size = size;
+        copy.resize(size);
+        return copy;
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                array.elements.addAll(arguments);
-                return null;
+    // Index must be in bounds
+    Object element(int index) {
+        int slot = slot(index);
+        if (integers != null) return integers[slot];
+        if (numbers != null) return numbers[slot];
+        if (booleans != null) return booleans[slot];
+        return objects[slot];
+    }
+
+    private void store(int index, Object item) {
+        if (integers != null && item instanceof Long) {
+            integers[slot(index)] = (Long) item;
+        } else if (numbers != null && item instanceof Double) {
+            numbers[slot(index)] = (Double) item;
+        } else if (booleans != null && item instanceof Boolean) {
+            booleans[slot(index)] = (Boolean) item;
+        } else {
+            if (objects == null) generalize();
+            objects[slot(index)] = item;
+        }
+    }
+
+    void add(Object item) {
+        if (size == 0) specialize(item);
+        if (shared || size == capacity()) resize(Math.max(8, size * 2));
+        store(size++, item);
+    }
+
+    void addFirst(Object item) {
+        if (size == 0) specialize(item);
+        if (shared || size == capacity()) resize(Math.max(8, size * 2));
+        head = (head == 0 ? capacity() : head) - 1;
+        size++;
+        store(0, item);
+    }
+
+    Object removeFirst() {
+        if (size == 0) throw new IndexOutOfBoundsException();
+        if (shared) resize(size);
+        Object item = element(0);
+        clear(0);
+        head = slot(1);
+        size--;
+        return item;
+    }
+
+    Object removeLast() {
+        if (size == 0) throw new IndexOutOfBoundsException();
+        if (shared) resize(size);
+        Object item = element(size - 1);
+        clear(size - 1);
+        size--;
+        return item;
+    }
+
+    // Moves the elements on the shorter side of index over it
+    Object remove(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException();
+        if (shared) resize(size);
+        Object item = element(index);
+        if (index < size / 2) {
+            for (int i = index; i > 0; i--) {
+                move(i - 1, i);
             }
-        });
-        methods.put("pop", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
+            removeFirst();
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                move(i + 1, i);
             }
+            removeLast();
+        }
+        return item;
+    }
+
+    // Replaces the elements that are not numbers or booleans
+    void replaceReferences(UnaryOperator<Object> replacement) {
+        if (objects == null) return;
+        for (int i = 0; i < size; i++) {
+            Object element = objects[slot(i)];
+            Object replaced = replacement.apply(element);
+            if (replaced == element) continue;
+            if (shared) resize(size);
+            objects[slot(i)] = replaced;
+        }
+    }
+
+    // Elements that may refer to other objects, numbers and booleans don't
+    void forEachReference(Consumer<Object> action) {
+        if (objects == null) return;
+        for (int i = 0; i < size; i++) {
+            action.accept(objects[slot(i)]);
+        }
+    }
+
+    private int slot(int index) {
+        int slot = head + index;
+        int capacity = capacity();
+        return slot >= capacity ? slot - capacity : slot;
+    }
+
+    private void move(int from, int to) {
+        int source = slot(from);
+        int target = slot(to);
+        if (integers != null) {
+            integers[target] = integers[source];
+        } else if (numbers != null) {
+            numbers[target] = numbers[source];
+        } else if (booleans != null) {
+            booleans[target] = booleans[source];
+        } else {
+            objects[target] = objects[source];
+        }
+    }
+
+    // Lets a removed object be collected
+    private void clear(int index) {
+        if (objects != null) objects[slot(index)] = null;
+    }
+
+    private int capacity() {
+        if (integers != null) return integers.length;
+        if (numbers != null) return numbers.length;
+        if (booleans != null) return booleans.length;
+        return objects.length;
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+    // New storage of the same kind with the elements from slot 0
+    private void resize(int capacity) {
+        if (integers != null) {
+            integers = (long[]) unwrap(integers, new long[capacity]);
+        } else if (numbers != null) {
+            numbers = (double[]) unwrap(numbers, new double[capacity]);
+        } else if (booleans != null) {
+            booleans = (boolean[]) unwrap(booleans, new boolean[capacity]);
+        } else {
+            objects = capacity == 0 ? EMPTY : (Object[]) unwrap(objects, new Object[capacity]);
+        }
+        head = 0;
+        shared = false;
+    }
+
+    private Object unwrap(Object from, Object to) {
+        int first = Math.min(size, capacity() - head);
+        System.arraycopy(from, head, to, 0, first);
+        System.arraycopy(from, 0, to, first, size - first);
+        return to;
+    }
+
+    // Picks the storage for the first element of an empty array
+    private void specialize(Object item) {
+        int capacity = capacity();
+        integers = null;
+        numbers = null;
+        booleans = null;
+        objects = null;
+        head = 0;
+        shared = false;
+        if (item instanceof Long) {
+            integers = new long[capacity];
+        } else if (item instanceof Double) {
+            numbers = new double[capacity];
+        } else if (item instanceof Boolean) {
+            booleans = new boolean[capacity];
+        } else {
+            objects = capacity == 0 ? EMPTY : new Object[capacity];
+        }
+    }
+
+    private void generalize() {
+        Object[] generic = new Object[capacity()];
+        for (int i = 0; i < size; i++) {
+            generic[i] = element(i);
+        }
+        integers = null;
+        numbers = null;
+        booleans = null;
+        objects = generic;
+        head = 0;
+        shared = false;
+    }
+
+    private static final NativeClass<LoxArray> TYPE = new NativeClass<LoxArray>("Array", array -> array.frozen)
+            .variadicMutator("add", (interpreter, array, arguments) -> {
+                arguments.forEach(array::add);
+                return null;
+            })
+            .mutator("pop", 0, LoxArray::popFirst)
+            // Like JavaScript
+            .mutator("shift", 0, LoxArray::popFirst)
+            .variadicMutator("unshift", (interpreter, array, arguments) -> {
+                // The arguments end up in the order they were given
+                for (int i = arguments.size() - 1; i >= 0; i--) {
+                    array.addFirst(arguments.get(i));
+                }
+                return null;
+            })
+            .mutator("popBack", 0, (interpreter, array, arguments) -> {
                 try {
-                    return array.elements.remove(0);
+                    return interpreter.adopt(array.removeLast());
                 } catch (IndexOutOfBoundsException e) {
                     throw new NativeError("Array is empty.");
                 }
-            }
-        });
-        methods.put("remove", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            })
+            .mutator("remove", 1, (interpreter, array, arguments) -> {
+                if (!LoxNumber.isInteger(arguments.get(0))) throw new NativeError("Index must be an integer.");
+                long idx = LoxNumber.toLong(arguments.get(0));
                 try {
-                    int idx = ((Double) arguments.get(0)).intValue();
-                    return array.elements.remove(idx);
-                } catch (NumberFormatException e) {
-                    throw new NativeError("Index must be an integer.");
+                    return interpreter.adopt(array.remove((int) Math.max(-1, Math.min(idx, Integer.MAX_VALUE))));
                 } catch (IndexOutOfBoundsException e) {
                     throw new NativeError(BOUNDS_ERROR_MSG);
                 }
-            }
-        });
-        methods.put("length", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return array.length();
-            }
-        });
-        methods.put("isEmpty", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+            })
+            .method("length", 0, (interpreter, array, arguments) -> (long) array.length())
+            .method("isEmpty", 0, (interpreter, array, arguments) -> array.length() == 0);
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return array.length() == 0;
-            }
-        });
-        return methods;
+    private static Object popFirst(Interpreter interpreter, LoxArray array, List<Object> arguments) {
+        try {
+            return interpreter.adopt(array.removeFirst());
+        } catch (IndexOutOfBoundsException e) {
+            throw new NativeError("Array is empty.");
+        }
     }
 
-    LoxCallable getMethod(Token name) {
-        if (methods.containsKey(name.lexeme)) {
-            return methods.get(name.lexeme);
-        }
-        throw new RuntimeError(name, "No such method.");
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
     }
 
     @Override
     public Object get(Token token, Object index) {
         int i = indexToInteger(token, index);
-        try {
-            return elements.get(i);
-        } catch (IndexOutOfBoundsException e) {
-            throw new RuntimeError(token, BOUNDS_ERROR_MSG);
-        }
+        if (i < 0 || i >= size) throw new RuntimeError(token, BOUNDS_ERROR_MSG);
+        return element(i);
     }
 
-    // array[x:y] like in Python. //TODO: hook up in parser/interpreter
-    private List<Object> slice(Token token, Object fromIndex, Object toIndex) {
-        int from = indexToInteger(token, fromIndex);
-        int to = indexToInteger(token, toIndex);
-        try {
-            List<Object> res = new ArrayList<>();
-            for (int i = from; i < to; i++) {
-                res.add(elements.get(i));
-            }
-            return res;
-        } catch (IndexOutOfBoundsException e) {
-            throw new RuntimeError(token, BOUNDS_ERROR_MSG);
-        }
+    // array[x:y] like in Python. The slice is a view of this array's storage
+    // until either of them is changed.
+    @Override
+    public LoxArray slice(Token token, Object fromIndex, Object toIndex) {
+        int from = LoxIndexable.bound(token, fromIndex, size, 0);
+        int to = LoxIndexable.bound(token, toIndex, size, size);
+        LoxArray res = new LoxArray();
+        if (from >= to) return res;
+
+        res.integers = integers;
+        res.numbers = numbers;
+        res.booleans = booleans;
+        res.objects = objects;
+        res.head = slot(from);
+        res.size = to - from;
+        res.shared = true;
+        // Sealed and frozen arrays are never changed, and must not be written to
+        if (!sealed && !frozen) shared = true;
+        return res;
     }
 
     @Override
     public void set(Token token, Object index, Object item) {
         int i = indexToInteger(token, index);
-        try {
-            elements.set(i, item);
-        } catch (IndexOutOfBoundsException e) {
-            throw new RuntimeError(token, BOUNDS_ERROR_MSG);
-        }
+        if (i < 0 || i >= size) throw new RuntimeError(token, BOUNDS_ERROR_MSG);
+        if (shared) resize(size);
+        store(i, item);
     }
 
     @Override
     public int length() {
-        return elements.size();
+        return size;
     }
 
     private int indexToInteger(Token token, Object index) {
-        if (index instanceof Double) {
-            double idx = ((Double) index).doubleValue();
-            // All number literals in Lox are doubles, have to do a little hack
-            if (idx == Math.floor(idx)) {
-                // Allow negative indexing like Python
-                return (idx < 0) ? Math.floorMod((int)idx, elements.size()) : (int)idx;
-            }
-        }
-        throw new RuntimeError(token, "Array index must be an integer.");
+        if (!LoxNumber.isInteger(index)) throw new RuntimeError(token, "Array index must be an integer.");
+        long idx = LoxNumber.toLong(index);
+        // Allow negative indexing like Python
+        if (idx < 0 && size > 0) return (int) Math.floorMod(idx, (long) size);
+        // Out of bounds either way
+        return (int) Math.min(idx, Integer.MAX_VALUE);
     }
 
 }
@@ -6,7 +6,7 @@ import java.util.Map;
 class LoxClass extends LoxInstance implements LoxCallable {
     final String name;
     final LoxClass superClass;
-    private final Map<String, LoxFunction> methods;
+    final Map<String, LoxFunction> methods;
 
     LoxClass(LoxClass metaclass, LoxClass superClass, String name, Map<String, LoxFunction> methods) {
         super(metaclass);
@@ -0,0 +1,74 @@
+package com.enielsen.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+// Runs a script on a LoxDaemon: takes the same arguments as jlox, forwards
+// standard input and output and exits with the script's exit code. Kept small
+// so that the JVM it starts in has almost nothing to load.
+public class LoxClient {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: jlox-client socket [jlox arguments]");
+            System.exit(64);
+        }
+
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(args[0]));
+
+        DataOutputStream out = DaemonProtocol.output(channel);
+        out.writeUTF(Paths.get("").toAbsolutePath().toString());
+        out.writeInt(args.length - 1);
+        for (int i = 1; i < args.length; i++) {
+            out.writeUTF(args[i]);
+        }
+        out.flush();
+
+        Thread stdin = new Thread(() -> forwardInput(out));
+        // The script may finish without reading its input
+        stdin.setDaemon(true);
+        stdin.start();
+
+        System.exit(receive(DaemonProtocol.input(channel)));
+    }
+
+    private static void forwardInput(DataOutputStream out) {
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = System.in.read(buffer)) >= 0) {
+                DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, read);
+            }
+            DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN_CLOSED, buffer, 0, 0);
+        } catch (IOException e) {
+            // The daemon is done with the script
+        }
+    }
+
+    private static int receive(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        try {
+            for (;;) {
+                byte kind = in.readByte();
+                int length = in.readInt();
+                if (kind == DaemonProtocol.EXIT) return in.readInt();
+
+                if (buffer.length < length) buffer = new byte[length];
+                in.readFully(buffer, 0, length);
+                OutputStream target = kind == DaemonProtocol.STDERR ? System.err : System.out;
+                target.write(buffer, 0, length);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("Lost connection to the daemon.");
+            return 70;
+        }
+    }
+}
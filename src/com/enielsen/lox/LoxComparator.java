@@ -0,0 +1,47 @@
+package com.enielsen.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The order of a sorted map or priority queue. A Lox comparator is called with
+// two values and returns a negative number, zero or a positive number, like
+// compareTo in Java. Without one numbers are compared with numbers and strings
+// with strings.
+final class LoxComparator {
+    // null for the natural order
+    final LoxCallable callable;
+
+    LoxComparator(LoxCallable callable) {
+        this.callable = callable;
+    }
+
+    // From the optional comparator argument of a native
+    static LoxComparator of(List<Object> arguments) {
+        if (arguments.size() > 1) {
+            throw new NativeError("Expected at most 1 argument but got " + arguments.size() + ".");
+        }
+        if (arguments.isEmpty() || arguments.get(0) == null) return new LoxComparator(null);
+
+        Object comparator = arguments.get(0);
+        if (!(comparator instanceof LoxCallable) ||
+                (((LoxCallable) comparator).arity() != 2 && !((LoxCallable) comparator).variadic())) {
+            throw new NativeError("Comparator must be a function of 2 arguments.");
+        }
+        return new LoxComparator((LoxCallable) comparator);
+    }
+
+    int compare(Interpreter interpreter, Object a, Object b) {
+        if (callable == null) return natural(a, b);
+
+        Object result = callable.call(interpreter, Arrays.asList(a, b));
+        if (!LoxNumber.isNumber(result)) throw new NativeError("Comparator must return a number.");
+        double order = LoxNumber.toDouble(result);
+        return order < 0 ? -1 : order > 0 ? 1 : 0;
+    }
+
+    private static int natural(Object a, Object b) {
+        if (LoxNumber.isNumber(a) && LoxNumber.isNumber(b)) return LoxNumber.compare(a, b);
+        if (a instanceof String && b instanceof String) return ((String) a).compareTo((String) b);
+        throw new NativeError("Can only order two numbers or two strings without a comparator.");
+    }
+}
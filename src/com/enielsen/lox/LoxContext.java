@@ -0,0 +1,213 @@
+package com.enielsen.lox;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Everything one Lox program owns: its interpreter and global scope, where it
+// reads input and writes output and diagnostics, and whether it has failed.
+// Contexts share no mutable state, so an application embedding Lox can run
+// any number of programs at the same time, one context per thread.
+public final class LoxContext {
+    final BufferedReader input;
+    final PrintStream out;
+    final PrintStream err;
+    final Interpreter interpreter;
+
+    // Front end options, see Lox
+    boolean lazyParsing = false;
+    boolean parallel = false;
+
+    boolean hadError = false;
+    // The line of the first compile error, -1 if there was none
+    int firstErrorLine = -1;
+    boolean hadRuntimeError = false;
+
+    // Modules imported so far by absolute path, see LoxModule
+    final Map<Path, LoxModule> modules;
+
+    // Diagnostics are kept here instead of printed if not null, see collecting()
+    private final List<String> reports;
+
+    // Programs compiled by run(), least recently run first. Resolution data
+    // lives on the AST, so an evicted program is collected with everything
+    // that was computed for it. Off unless an embedder sets a limit, since
+    // every entry keeps its whole source and AST alive.
+    private int compiledLimit = 0;
+    private final Map<String, List<Stmt>> compiled = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest) {
+            return size() > compiledLimit;
+        }
+    };
+
+    public LoxContext() {
+        this(System.in, System.out, System.err);
+    }
+
+    public LoxContext(InputStream in, PrintStream out, PrintStream err) {
+        this(new BufferedReader(new InputStreamReader(in)), out, err, null);
+    }
+
+    // For embedders that read characters, see LoxScriptEngine
+    LoxContext(Reader in, PrintStream out, PrintStream err) {
+        this(new BufferedReader(in), out, err, null);
+    }
+
+    private LoxContext(BufferedReader in, PrintStream out, PrintStream err, LoxContext parent) {
+        this.input = in;
+        this.out = out;
+        this.err = err;
+        this.interpreter = parent == null ? new Interpreter(this) : parent.interpreter.fork(this);
+        this.reports = null;
+        // A fork imports its modules again when it uses them, see LoxModule.in
+        this.modules = new HashMap<>();
+        if (parent != null) {
+            this.lazyParsing = parent.lazyParsing;
+            this.parallel = parent.parallel;
+        }
+    }
+
+    private LoxContext(LoxContext parent) {
+        this.input = parent.input;
+        this.out = parent.out;
+        this.err = parent.err;
+        this.interpreter = parent.interpreter;
+        this.lazyParsing = parent.lazyParsing;
+        this.parallel = parent.parallel;
+        this.reports = new ArrayList<>();
+        this.modules = parent.modules;
+    }
+
+    // Compiles and runs source in this context's global scope. Running the
+    // same source again reuses the compiled program while it is cached, see
+    // setCompiledLimit.
+    public void run(String source) {
+        List<Stmt> statements = compiled.get(source);
+        if (statements == null) {
+            statements = compile(source);
+            if (statements == null) return;
+            if (compiledLimit > 0) compiled.put(source, statements);
+        }
+
+        interpreter.interpret(statements);
+    }
+
+    // How many compiled programs run() keeps, 0, the default, to keep none
+    public void setCompiledLimit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Negative limit: " + limit);
+        compiledLimit = limit;
+        evictCompiled(limit);
+    }
+
+    // Forgets all but the most recently run compiled programs
+    public void evictCompiled(int keep) {
+        if (keep < 0) throw new IllegalArgumentException("Negative count: " + keep);
+        int evict = compiled.size() - keep;
+        for (Iterator<String> it = compiled.keySet().iterator(); evict > 0; evict--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // A context that starts with this one's globals, e.g. those defined by a
+    // prelude, without running anything again. Neither context sees what the
+    // other changes afterwards. Modules are the exception, the fork runs them
+    // again the first time it uses them. Must not be called while this context
+    // is running.
+    public LoxContext fork(InputStream in, PrintStream out, PrintStream err) {
+        return new LoxContext(new BufferedReader(new InputStreamReader(in)), out, err, this);
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    // Scans, parses and resolves, returning null if there was an error
+    List<Stmt> compile(String source) {
+        Scanner scanner = new Scanner(this, source);
+        List<Token> tokens = scanner.scanTokens();
+
+        List<Stmt> statements;
+        if (parallel) {
+            statements = ParallelFrontEnd.compile(this, tokens, lazyParsing);
+        } else {
+            Parser parser = new Parser(this, tokens, lazyParsing);
+            statements = parser.parse();
+
+            // Stop if there was a syntax error
+            if (hadError) return null;
+
+            Resolver resolver = new Resolver(this);
+            resolver.resolve(statements);
+        }
+
+        if (hadError) return null;
+        return statements;
+    }
+
+    // A context for compiling part of a program on its own, e.g. on another
+    // thread. Its diagnostics are held back until they are replayed here.
+    LoxContext collecting() {
+        return new LoxContext(this);
+    }
+
+    void replay(LoxContext collected) {
+        collected.reports.forEach(this::report);
+        hadError |= collected.hadError;
+        if (firstErrorLine < 0) firstErrorLine = collected.firstErrorLine;
+    }
+
+    void error(int line, String message) {
+        reportError(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            reportError(token.line, " at end", message);
+        } else {
+            reportError(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void warning(Token token, String message) {
+        reportWarning(token.line, " at '" + token.lexeme + "'", message);
+    }
+
+    void runtimeError(RuntimeError error) {
+        err.println(error.getMessage() +
+                "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    private void reportError(int line, String where, String message) {
+        report("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+        if (firstErrorLine < 0) firstErrorLine = line;
+    }
+
+    private void reportWarning(int line, String where, String message) {
+        report("[line " + line + "] Warning" + where + ": " + message);
+    }
+
+    private void report(String message) {
+        if (reports != null) {
+            reports.add(message);
+        } else {
+            err.println(message);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.enielsen.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Keeps a warmed up JVM listening on a Unix domain socket and runs the command
+// lines LoxClient sends it, so short scripts don't pay for JVM startup. Every
+// connection runs on a thread of its own in a fresh LoxContext.
+class LoxDaemon {
+    private static final String WARM_UP =
+            "class Point {\n" +
+            "    init(x, y) { this.x = x; this.y = y; }\n" +
+            "    plus(other) { return Point(this.x + other.x, this.y + other.y); }\n" +
+            "}\n" +
+            "fun sum(n) {\n" +
+            "    var total = Point(0, 0);\n" +
+            "    var points = list();\n" +
+            "    for (var i = 0; i < n; i++) {\n" +
+            "        total = total.plus(Point(i, n - i));\n" +
+            "        points.add(total.x > total.y ? \"x\" : \"y\");\n" +
+            "    }\n" +
+            "    return total.x + total.y;\n" +
+            "}\n" +
+            "print sum(2000);\n";
+    private static final int WARM_UP_RUNS = 20;
+
+    private LoxDaemon() {}
+
+    static void serve(Path socket) throws IOException {
+        warmUp();
+
+        // Left behind by a daemon that did not shut down cleanly
+        Files.deleteIfExists(socket);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        socket.toFile().deleteOnExit();
+
+        for (;;) {
+            SocketChannel channel = server.accept();
+            new Thread(() -> handle(channel)).start();
+        }
+    }
+
+    // Loads and compiles the front end and the interpreter before the first client
+    private static void warmUp() {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            new LoxContext(InputStream.nullInputStream(), discard, discard).run(WARM_UP);
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try (SocketChannel connection = channel) {
+            DataInputStream in = DaemonProtocol.input(connection);
+            DataOutputStream out = DaemonProtocol.output(connection);
+
+            Path directory = Paths.get(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(
+                    new FrameOutput(out, DaemonProtocol.STDOUT)), false);
+            PrintStream stderr = new PrintStream(new BufferedOutputStream(
+                    new FrameOutput(out, DaemonProtocol.STDERR)), false);
+            InputStream stdin = new FrameInput(in, stdout);
+
+            int status = run(args, directory, new LoxContext(stdin, stdout, stderr));
+
+            stdout.flush();
+            stderr.flush();
+            byte[] exit = ByteBuffer.allocate(4).putInt(status).array();
+            DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, exit, 0, exit.length);
+        } catch (IOException e) {
+            // The client went away, there is no one to report to
+        }
+    }
+
+    private static int run(String[] args, Path directory, LoxContext context) {
+        try {
+            return Lox.launch(context, args, directory);
+        } catch (IOException e) {
+            context.err.println(e);
+            return 74;
+        } catch (RuntimeException | StackOverflowError e) {
+            // A bug in jlox should not take the daemon down with it
+            e.printStackTrace(context.err);
+            return 70;
+        }
+    }
+
+    private static class FrameOutput extends OutputStream {
+        private final DataOutputStream out;
+        private final byte kind;
+
+        FrameOutput(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            DaemonProtocol.writeFrame(out, kind, b, off, len);
+        }
+    }
+
+    // The client's standard input, only read from the connection once the
+    // script asks for it
+    private static class FrameInput extends InputStream {
+        private final DataInputStream in;
+        private final Flushable output;
+        private byte[] frame = new byte[0];
+        private int position = 0;
+        private boolean closed = false;
+
+        FrameInput(DataInputStream in, Flushable output) {
+            this.in = in;
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            while (position == frame.length) {
+                if (closed) return -1;
+
+                // Show what the script printed so far, e.g. a prompt, before waiting
+                output.flush();
+                byte kind = in.readByte();
+                frame = new byte[in.readInt()];
+                in.readFully(frame);
+                position = 0;
+                if (kind == DaemonProtocol.STDIN_CLOSED) closed = true;
+            }
+
+            int count = Math.min(len, frame.length - position);
+            System.arraycopy(frame, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
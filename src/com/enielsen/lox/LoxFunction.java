@@ -4,16 +4,24 @@ import java.util.List;
 
 class LoxFunction implements LoxCallable {
 
-    private final String name;
-    private final Expr.Function function;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final String name;
+    final Expr.Function function;
+    final Environment closure;
+    final boolean isInitializer;
+    // The module that defined the function, null otherwise
+    final LoxModule home;
 
     LoxFunction(String name, Expr.Function function, Environment closure, boolean isInitializer) {
+        this(name, function, closure, isInitializer, null);
+    }
+
+    LoxFunction(String name, Expr.Function function, Environment closure, boolean isInitializer,
+                LoxModule home) {
         this.name = name;
         this.function = function;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.home = home;
     }
 
     boolean isGetter() {
@@ -23,7 +31,7 @@ class LoxFunction implements LoxCallable {
     LoxFunction bind(LoxInstance instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(name, function, environment, isInitializer);
+        return new LoxFunction(name, function, environment, isInitializer, home);
     }
 
     @Override
@@ -33,6 +41,9 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        // Reads the module's globals, not the caller's
+        if (home != null) interpreter = home.in(interpreter.context).home;
+
         Environment environment = new Environment(closure);
         if (function.parameters != null) {
             for (int i = 0; i < function.parameters.size(); i++) {
@@ -40,14 +51,17 @@ class LoxFunction implements LoxCallable {
             }
         }
 
+        List<Stmt> body = function.body;
+        if (body == null) body = DeferredBody.complete(function, interpreter.context);
+
         try {
-            interpreter.executeBlock(function.body, environment);
+            interpreter.executeBlock(body, environment);
         } catch (ReturnJump returnValue) {
             return returnValue.value;
         }
 
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return interpreter.adopt(closure.getAt(0, "this"));
         }
         return null;
     }
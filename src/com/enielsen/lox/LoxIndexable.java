@@ -9,5 +9,22 @@ interface LoxIndexable {
 
     void set(Token token, Object index, Object item);
 
+    // indexable[from:to], either bound may be nil
+    Object slice(Token token, Object from, Object to);
+
     int length();
+
+    // A slice bound as a position from 0 to length. Negative bounds count
+    // from the end like in Python, nil is the default.
+    static int bound(Token token, Object index, int length, int absent) {
+        if (index == null) return absent;
+        if (!LoxNumber.isInteger(index)) throw new RuntimeError(token, "Slice index must be an integer.");
+
+        long idx = LoxNumber.toLong(index);
+        long position = idx < 0 ? idx + length : idx;
+        if (position < 0 || position > length) {
+            throw new RuntimeError(token, "Slice index out of bounds.");
+        }
+        return (int) position;
+    }
 }
@@ -4,8 +4,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
-    private LoxClass klass;
+    final LoxClass klass;
     final Map<String, Object> fields = new HashMap<>();
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
@@ -0,0 +1,196 @@
+package com.enielsen.lox;
+
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+// A hash map from any Lox value to any Lox value, {key: value} or map().
+// Keys are the same when == says so: numbers, strings and booleans by value,
+// everything else by identity. 1 and 1.0 are the same key.
+//
+// Open addressing with linear probing over parallel arrays, so an entry is
+// not an object of its own. The hash of every key is kept next to it: a probe
+// compares ints until it finds a likely match, and only numbers, strings and
+// booleans are ever compared with equals. Removing an entry moves the
+// ones after it back instead of leaving a tombstone.
+class LoxMap implements LoxIndexable, NativeClass.Instance {
+
+    // Stands for nil as a key, null marks an empty slot
+    private static final Object NIL = new Object();
+
+    private Object[] keys = new Object[8];
+    private Object[] values = new Object[8];
+    private int[] hashes = new int[8];
+    private int size = 0;
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
+
+    Object get(Object key) {
+        Object stored = key == null ? NIL : key;
+        int slot = find(stored, hash(stored));
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean containsKey(Object key) {
+        Object stored = key == null ? NIL : key;
+        return find(stored, hash(stored)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        Object stored = key == null ? NIL : key;
+        int hash = hash(stored);
+        int slot = find(stored, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+
+        // At most three quarters full, so probes end at an empty slot
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+            slot = find(stored, hash);
+        }
+        slot = -1 - slot;
+        keys[slot] = stored;
+        values[slot] = value;
+        hashes[slot] = hash;
+        size++;
+    }
+
+    // Returns the value that was removed, nil if there was none
+    Object remove(Object key) {
+        Object stored = key == null ? NIL : key;
+        int slot = find(stored, hash(stored));
+        if (slot < 0) return null;
+
+        Object value = values[slot];
+        delete(slot);
+        return value;
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) action.accept(keys[i] == NIL ? null : keys[i], values[i]);
+        }
+    }
+
+    void replaceValues(UnaryOperator<Object> replacement) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) values[i] = replacement.apply(values[i]);
+        }
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    // The slot of key, or -1 - the empty slot where it would go
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == null) return -1 - i;
+            if (hashes[i] == hash && same(candidate, key)) return i;
+        }
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            // An entry can fill the hole if probing for it passes the hole
+            int home = hashes[i] & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hashes[hole] = hashes[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    // Numbers that are integers differ only in their high bits, so the hash
+    // is mixed before its low bits pick a slot
+    static int hash(Object key) {
+        int hash;
+        if (key instanceof String) {
+            hash = key.hashCode();
+        } else if (LoxNumber.isNumber(key)) {
+            long bits = LoxNumber.hashBits(key);
+            hash = (int) (bits ^ (bits >>> 32));
+        } else if (key instanceof Boolean) {
+            hash = key.hashCode();
+        } else {
+            hash = System.identityHashCode(key);
+        }
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    static boolean same(Object a, Object b) {
+        if (a == b) return true;
+        if (LoxNumber.isNumber(a) && LoxNumber.isNumber(b)) return LoxNumber.same(a, b);
+        if (a instanceof String || a instanceof Boolean) return a.equals(b);
+        return false;
+    }
+
+    private static final NativeClass<LoxMap> TYPE = new NativeClass<LoxMap>("Map", map -> map.frozen)
+            .method("has", 1, (interpreter, map, arguments) -> map.containsKey(arguments.get(0)))
+            .mutator("remove", 1, (interpreter, map, arguments) ->
+                    interpreter.adopt(map.remove(arguments.get(0))))
+            .method("keys", 0, (interpreter, map, arguments) -> entries(map, true))
+            .method("values", 0, (interpreter, map, arguments) -> entries(map, false))
+            .method("length", 0, (interpreter, map, arguments) -> (long) map.length())
+            .method("isEmpty", 0, (interpreter, map, arguments) -> map.length() == 0);
+
+    private static LoxArray entries(LoxMap map, boolean keys) {
+        LoxArray array = new LoxArray();
+        map.forEach((key, value) -> array.add(keys ? key : value));
+        return array;
+    }
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+
+    // nil for a missing key
+    @Override
+    public Object get(Token token, Object index) {
+        return get(index);
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        put(index, item);
+    }
+
+    @Override
+    public Object slice(Token token, Object from, Object to) {
+        throw new RuntimeError(token, "Maps cannot be sliced.");
+    }
+}
@@ -0,0 +1,122 @@
+package com.enielsen.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A source file loaded with import "path" as name;
+//
+// A module runs once per LoxContext, in an Interpreter of its own, and exports
+// whatever its top level defines. Functions and classes it defines keep running
+// in that interpreter, so they see the module's globals wherever they are
+// called from. The compiled statements do not depend on any context, so they
+// are shared by every context in the JVM, keyed by a hash of the source like
+// CompileCache does. Only the most recently imported sources are kept.
+class LoxModule {
+    private static final int COMPILED_LIMIT = 64;
+    private static final Map<String, List<Stmt>> compiled = Collections.synchronizedMap(
+            new LinkedHashMap<String, List<Stmt>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest) {
+                    return size() > COMPILED_LIMIT;
+                }
+            });
+    private static final Map<String, LoxCallable> natives = NativeFunctions.natives();
+
+    private final Path path;
+    // Where it was first imported, errors loading it again are reported there
+    private final Token pathToken;
+    final Interpreter home;
+    // Still running its top level, importing it now would be circular
+    private boolean loading = true;
+
+    private LoxModule(LoxContext context, Path path, Token pathToken) {
+        this.path = path;
+        this.pathToken = pathToken;
+        this.home = new Interpreter(context, path.getParent(), this);
+    }
+
+    static LoxModule load(Interpreter importer, Token pathToken) {
+        Path path = importer.directory.resolve((String) pathToken.literal).toAbsolutePath().normalize();
+        return load(importer.context, path, pathToken);
+    }
+
+    private static LoxModule load(LoxContext context, Path path, Token pathToken) {
+        LoxModule module = context.modules.get(path);
+        if (module != null) {
+            if (module.loading) {
+                throw new RuntimeError(pathToken, "Circular import of '" + pathToken.literal + "'.");
+            }
+            return module;
+        }
+
+        List<Stmt> statements = compile(context, pathToken, path);
+        module = new LoxModule(context, path, pathToken);
+        context.modules.put(path, module);
+        try {
+            module.home.run(statements);
+        } catch (RuntimeError error) {
+            // Reported by the importer, a later import tries again
+            context.modules.remove(path);
+            throw error;
+        }
+        module.loading = false;
+        return module;
+    }
+
+    // This module as loaded in a context. A fork gets the parent's modules
+    // through its globals but runs them again in interpreters of its own, so
+    // forks never share a module's state.
+    LoxModule in(LoxContext context) {
+        if (home.context == context) return this;
+        return load(context, path, pathToken);
+    }
+
+    private static List<Stmt> compile(LoxContext context, Token pathToken, Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new RuntimeError(pathToken, "Could not read module '" + pathToken.literal + "'.");
+        }
+        String hash = CompileCache.hash("", bytes);
+        List<Stmt> cached = compiled.get(hash);
+        if (cached != null) return cached;
+
+        String source = new String(bytes, Charset.defaultCharset());
+
+        // Compile errors are reported like any other and then fail the import
+        LoxContext compiler = context.collecting();
+        List<Stmt> statements = compiler.compile(source);
+        context.replay(compiler);
+        if (statements == null) {
+            throw new RuntimeError(pathToken, "Could not compile module '" + pathToken.literal + "'.");
+        }
+
+        compiled.put(hash, statements);
+        return statements;
+    }
+
+    Object get(Token name) {
+        Environment globals = home.globals;
+        if (globals.isDefined(name.lexeme) && !isNative(name.lexeme, globals.get(name))) {
+            return globals.get(name);
+        }
+
+        throw new RuntimeError(name, "Module '" + path.getFileName() + "' has no '" + name.lexeme + "'.");
+    }
+
+    private static boolean isNative(String name, Object value) {
+        return value != null && value == natives.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + path.getFileName() + ">";
+    }
+}
@@ -0,0 +1,93 @@
+package com.enielsen.lox;
+
+// Numbers are integers, Long, or floating point, Double. Literals without a
+// decimal point are integers, and + - * on two integers stay integers unless
+// the result does not fit in 64 bits, which gives a Double like every other
+// mix does. / always gives a Double.
+//
+// An integer and a Double are equal when the Double is exactly that integer,
+// so 1 == 1.0 and both are the same map key.
+final class LoxNumber {
+
+    private LoxNumber() {}
+
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    // An integer, or a Double that is exactly one
+    static boolean isInteger(Object value) {
+        return value instanceof Long || (value instanceof Double && isExactLong((Double) value));
+    }
+
+    // Only for integers, see isInteger
+    static long toLong(Object value) {
+        return value instanceof Long ? (Long) value : (long) (double) (Double) value;
+    }
+
+    static double toDouble(Object value) {
+        return value instanceof Long ? (double) (Long) value : (Double) value;
+    }
+
+    // Also rules out NaN, -0.0 and 2^63, which (long) rounds down
+    private static boolean isExactLong(double value) {
+        return Double.doubleToRawLongBits((double) (long) value) == Double.doubleToRawLongBits(value) &&
+                value != 0x1p63;
+    }
+
+    static Object add(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (Long) left;
+            long b = (Long) right;
+            long sum = a + b;
+            // Overflowed if the sign of the sum differs from both of theirs
+            if (((a ^ sum) & (b ^ sum)) >= 0) return sum;
+        }
+        return toDouble(left) + toDouble(right);
+    }
+
+    static Object subtract(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (Long) left;
+            long b = (Long) right;
+            long difference = a - b;
+            if (((a ^ b) & (a ^ difference)) >= 0) return difference;
+        }
+        return toDouble(left) - toDouble(right);
+    }
+
+    static Object multiply(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (Long) left;
+            long b = (Long) right;
+            long product = a * b;
+            // The high half of the full product only holds the sign
+            if (Math.multiplyHigh(a, b) == (product >> 63)) return product;
+        }
+        return toDouble(left) * toDouble(right);
+    }
+
+    static Object negate(Object value) {
+        if (value instanceof Long && (Long) value != Long.MIN_VALUE) return -(Long) value;
+        return -toDouble(value);
+    }
+
+    static int compare(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return Long.compare((Long) left, (Long) right);
+        return Double.compare(toDouble(left), toDouble(right));
+    }
+
+    // Like Double.equals for two Doubles, so NaN is equal to itself as before
+    static boolean same(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return ((Long) a).longValue() == (Long) b;
+        if (a instanceof Double && b instanceof Double) return a.equals(b);
+        if (a instanceof Long) return isInteger(b) && toLong(b) == (Long) a;
+        return isInteger(a) && toLong(a) == (Long) b;
+    }
+
+    // The same for numbers that are the same
+    static long hashBits(Object value) {
+        if (isInteger(value)) return toLong(value);
+        return Double.doubleToLongBits((Double) value);
+    }
+}
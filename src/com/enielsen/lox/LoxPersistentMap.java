@@ -0,0 +1,284 @@
+package com.enielsen.lox;
+
+import java.util.function.BiConsumer;
+
+// A persistent hash map, persistentMap(). put() and remove() return a new map
+// and leave the old one as it was, sharing all but O(log32 n) of its nodes.
+// Keys are the same as for LoxMap.
+//
+// A hash array mapped trie: each level of nodes is indexed by 5 bits of the
+// hash, and a node only has room for the children it has, found by counting
+// the bits below theirs in a bitmap. Keys whose whole hashes are the same
+// share a collision node.
+class LoxPersistentMap implements LoxIndexable, NativeClass.Instance {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // What find() returns for a missing key, nil is a value
+    private static final Object MISSING = new Object();
+
+    private Node root = null;
+    private int size = 0;
+    // Has keys that forked interpreters read as copies, see SharedHeap. The
+    // map itself never changes and needs no copy otherwise.
+    boolean sealed = false;
+
+    LoxPersistentMap() {
+    }
+
+    private LoxPersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    Object get(Object key) {
+        Object value = find(key);
+        return value == MISSING ? null : value;
+    }
+
+    boolean containsKey(Object key) {
+        return find(key) != MISSING;
+    }
+
+    LoxPersistentMap put(Object key, Object value) {
+        int hash = LoxMap.hash(key);
+        Object old = root == null ? MISSING : root.find(0, hash, key);
+        if (old == value) return this;
+
+        Node node = root == null ? BitmapNode.EMPTY : root;
+        return new LoxPersistentMap(node.put(0, hash, key, value), old == MISSING ? size + 1 : size);
+    }
+
+    LoxPersistentMap remove(Object key) {
+        if (!containsKey(key)) return this;
+        return new LoxPersistentMap(root.remove(0, LoxMap.hash(key), key), size - 1);
+    }
+
+    // Replaces the entries, for building a map before anyone can see it
+    void load(Object[] entries) {
+        LoxPersistentMap map = new LoxPersistentMap();
+        for (int i = 0; i < entries.length; i += 2) {
+            map = map.put(entries[i], entries[i + 1]);
+        }
+        root = map.root;
+        size = map.size;
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        if (root != null) root.forEach(action);
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    private Object find(Object key) {
+        return root == null ? MISSING : root.find(0, LoxMap.hash(key), key);
+    }
+
+    private interface Node {
+        Object find(int shift, int hash, Object key);
+
+        Node put(int shift, int hash, Object key, Object value);
+
+        // null if the node is left empty
+        Node remove(int shift, int hash, Object key);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    // Key and value pairs, or a null key and a child node
+    private static class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return MISSING;
+
+            int i = 2 * index(bit);
+            if (array[i] == null && array[i + 1] instanceof Node) {
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+            }
+            return LoxMap.same(array[i], key) ? array[i + 1] : MISSING;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, i);
+                copy[i] = key;
+                copy[i + 1] = value;
+                System.arraycopy(array, i, copy, i + 2, array.length - i);
+                return new BitmapNode(bitmap | bit, copy);
+            }
+
+            Object[] copy = array.clone();
+            if (array[i] == null && array[i + 1] instanceof Node) {
+                copy[i + 1] = ((Node) array[i + 1]).put(shift + BITS, hash, key, value);
+            } else if (LoxMap.same(array[i], key)) {
+                copy[i + 1] = value;
+            } else {
+                copy[i] = null;
+                copy[i + 1] = pair(shift + BITS, array[i], array[i + 1], key, value, hash);
+            }
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * index(bit);
+            if (array[i] == null && array[i + 1] instanceof Node) {
+                Node child = ((Node) array[i + 1]).remove(shift + BITS, hash, key);
+                if (child != null) {
+                    Object[] copy = array.clone();
+                    copy[i + 1] = child;
+                    return new BitmapNode(bitmap, copy);
+                }
+            }
+
+            // Without the pair or the emptied child
+            if (bitmap == bit) return null;
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null && array[i + 1] instanceof Node) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+    }
+
+    // Keys with the same hash
+    private static class CollisionNode implements Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (LoxMap.same(array[i], key)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i < 0 ? MISSING : array[i + 1];
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value) {
+            if (hash != this.hash) {
+                // Not a collision after all, move this node a level down
+                BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] {null, this});
+                return parent.put(shift, hash, key, value);
+            }
+
+            int i = indexOf(key);
+            if (i >= 0) {
+                Object[] copy = array.clone();
+                copy[i + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            if (array.length == 2) return null;
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    // A node for two keys that first differ at this level or below
+    private static Node pair(int shift, Object key1, Object value1, Object key2, Object value2, int hash2) {
+        int hash1 = LoxMap.hash(key1);
+        if (hash1 == hash2) return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+        return BitmapNode.EMPTY.put(shift, hash1, key1, value1).put(shift, hash2, key2, value2);
+    }
+
+    private static final NativeClass<LoxPersistentMap> TYPE = new NativeClass<LoxPersistentMap>("PersistentMap")
+            .method("get", 1, (interpreter, map, arguments) -> interpreter.adopt(map.get(arguments.get(0))))
+            .method("put", 2, (interpreter, map, arguments) -> map.put(arguments.get(0), arguments.get(1)))
+            .method("remove", 1, (interpreter, map, arguments) -> map.remove(arguments.get(0)))
+            .method("has", 1, (interpreter, map, arguments) -> map.containsKey(arguments.get(0)))
+            .method("keys", 0, (interpreter, map, arguments) -> {
+                LoxArray array = new LoxArray();
+                map.forEach((key, value) -> array.add(key));
+                return array;
+            })
+            .method("values", 0, (interpreter, map, arguments) -> {
+                LoxArray array = new LoxArray();
+                map.forEach((key, value) -> array.add(value));
+                return array;
+            })
+            .method("length", 0, (interpreter, map, arguments) -> (long) map.size)
+            .method("isEmpty", 0, (interpreter, map, arguments) -> map.size == 0);
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+
+    // nil for a missing key
+    @Override
+    public Object get(Token token, Object index) {
+        return get(index);
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        throw new RuntimeError(token, "Persistent maps can't be changed, put() returns a new one.");
+    }
+
+    @Override
+    public Object slice(Token token, Object from, Object to) {
+        throw new RuntimeError(token, "Maps cannot be sliced.");
+    }
+}
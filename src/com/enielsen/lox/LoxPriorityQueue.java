@@ -0,0 +1,160 @@
+package com.enielsen.lox;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// A binary min-heap, priorityQueue() or priorityQueue(comparator): pop()
+// returns the element that orders first. Elements are swapped one comparison
+// at a time, and if the comparator fails the swaps are undone, so the failed
+// add or pop leaves the heap as it was.
+class LoxPriorityQueue implements NativeClass.Instance {
+
+    private LoxComparator comparator;
+    private Object[] heap = new Object[8];
+    private int size = 0;
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
+
+    LoxPriorityQueue(LoxComparator comparator) {
+        this.comparator = comparator;
+    }
+
+    LoxCallable comparator() {
+        return comparator.callable;
+    }
+
+    // For a frozen copy of the comparator, see DeepFreeze
+    void setComparator(LoxCallable comparator) {
+        this.comparator = new LoxComparator(comparator);
+    }
+
+    // Replaces the elements with ones that are already in heap order
+    void load(LoxCallable comparator, Object[] heap, int size) {
+        this.comparator = new LoxComparator(comparator);
+        this.heap = Arrays.copyOf(heap, Math.max(8, size));
+        this.size = size;
+    }
+
+    LoxPriorityQueue copy(LoxCallable comparator) {
+        LoxPriorityQueue copy = new LoxPriorityQueue(null);
+        copy.load(comparator, heap, size);
+        return copy;
+    }
+
+    void add(Interpreter interpreter, Object element) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+        heap[size] = element;
+        int last = size++;
+        int child = last;
+        boolean done = false;
+        try {
+            while (child > 0) {
+                int parent = (child - 1) / 2;
+                if (comparator.compare(interpreter, heap[child], heap[parent]) >= 0) break;
+                swap(child, parent);
+                child = parent;
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Back down the same path, then it is dropped
+                for (int i = child; i < last; ) {
+                    int next = pathBelow(i, last);
+                    swap(i, next);
+                    i = next;
+                }
+                heap[--size] = null;
+            }
+        }
+    }
+
+    Object pop(Interpreter interpreter) {
+        // The last element is sifted down from the top while the first waits at
+        // the end, and is only dropped once the heap is in order again
+        int last = size - 1;
+        swap(0, last);
+
+        int parent = 0;
+        boolean done = false;
+        try {
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= last) break;
+                if (child + 1 < last && comparator.compare(interpreter, heap[child + 1], heap[child]) < 0) child++;
+                if (comparator.compare(interpreter, heap[child], heap[parent]) >= 0) break;
+                swap(child, parent);
+                parent = child;
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Back up the same path
+                for (int i = parent; i > 0; i = (i - 1) / 2) {
+                    swap(i, (i - 1) / 2);
+                }
+                swap(0, last);
+            }
+        }
+
+        Object first = heap[last];
+        heap[last] = null;
+        size = last;
+        return first;
+    }
+
+    // The child of node on the way down to descendant
+    private static int pathBelow(int node, int descendant) {
+        int child = descendant;
+        while ((child - 1) / 2 != node) {
+            child = (child - 1) / 2;
+        }
+        return child;
+    }
+
+    // In heap order
+    void forEach(Consumer<Object> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(heap[i]);
+        }
+    }
+
+    void replaceAll(UnaryOperator<Object> replacement) {
+        for (int i = 0; i < size; i++) {
+            heap[i] = replacement.apply(heap[i]);
+        }
+    }
+
+    int length() {
+        return size;
+    }
+
+    private void swap(int i, int j) {
+        Object element = heap[i];
+        heap[i] = heap[j];
+        heap[j] = element;
+    }
+
+    private static final NativeClass<LoxPriorityQueue> TYPE = new NativeClass<LoxPriorityQueue>("PriorityQueue", queue -> queue.frozen)
+            .variadicMutator("add", (interpreter, queue, arguments) -> {
+                for (Object argument : arguments) {
+                    queue.add(interpreter, argument);
+                }
+                return null;
+            })
+            .mutator("pop", 0, (interpreter, queue, arguments) -> {
+                if (queue.size == 0) throw new NativeError("Priority queue is empty.");
+                return interpreter.adopt(queue.pop(interpreter));
+            })
+            // nil if the queue is empty
+            .method("peek", 0, (interpreter, queue, arguments) -> interpreter.adopt(queue.heap[0]))
+            .method("length", 0, (interpreter, queue, arguments) -> (long) queue.size)
+            .method("isEmpty", 0, (interpreter, queue, arguments) -> queue.size == 0);
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+}
@@ -0,0 +1,309 @@
+package com.enielsen.lox;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Lox for javax.script. Every evaluation runs in a LoxContext of its own whose
+// globals are the script context's bindings: they are defined before the
+// script runs, and the globals it defines or changes are put back into the
+// engine scope afterwards. A CompiledScript is scanned, parsed and resolved
+// once and can then be evaluated any number of times, also concurrently as
+// long as each evaluation has its own bindings.
+//
+// Integers from Java (Long, Integer, Short, Byte) become Lox integers, Longs,
+// other numbers become Doubles and characters become strings; everything else
+// is passed through as it is. eval returns the value of the last expression
+// statement.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    private static final Map<String, LoxCallable> natives = NativeFunctions.natives();
+
+    private final LoxScriptEngineFactory factory;
+    // Making a PrintStream takes longer than running a short script, so the
+    // ones for the last writers are kept
+    private volatile WriterStream lastOut = null;
+    private volatile WriterStream lastErr = null;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script, context).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(script, getContext());
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Object function = getContext().getAttribute(name);
+        if (!(function instanceof LoxCallable)) {
+            throw new NoSuchMethodException("No function '" + name + "'.");
+        }
+        return invoke((LoxCallable) function, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args)
+            throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof LoxInstance)) {
+            throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+        }
+
+        Object method;
+        try {
+            method = ((LoxInstance) thiz).get(new Token(TokenType.IDENTIFIER, name, null, 0));
+        } catch (RuntimeError error) {
+            throw new NoSuchMethodException(error.getMessage());
+        }
+        if (!(method instanceof LoxCallable)) {
+            throw new NoSuchMethodException("No method '" + name + "'.");
+        }
+        return invoke((LoxCallable) method, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> type) {
+        return getInterface(null, type);
+    }
+
+    // Implements the interface with the functions, or the methods of thiz, of
+    // the same names
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type) {
+        if (type == null || !type.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + type);
+        }
+
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (self, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(self, method, args);
+                    }
+                    Object[] arguments = args == null ? new Object[0] : args;
+                    return thiz == null
+                            ? invokeFunction(method.getName(), arguments)
+                            : invokeMethod(thiz, method.getName(), arguments);
+                });
+        return type.cast(proxy);
+    }
+
+    private static Object objectMethod(Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            default:
+                return "<lox proxy>";
+        }
+    }
+
+    private CompiledScript compile(String script, ScriptContext context) throws ScriptException {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        LoxContext compiler = new LoxContext(InputStream.nullInputStream(),
+                new PrintStream(OutputStream.nullOutputStream()), new PrintStream(errors, true));
+
+        List<Stmt> statements = compiler.compile(script);
+        if (statements == null) {
+            throw new ScriptException(errors.toString().trim(), fileName(context), compiler.firstErrorLine);
+        }
+        return new LoxCompiledScript(this, statements);
+    }
+
+    private Object invoke(LoxCallable callable, Object[] args) throws ScriptException {
+        if (args.length != callable.arity() && !callable.variadic()) {
+            throw new ScriptException("Expected " + callable.arity() + " arguments but got " +
+                    args.length + ".");
+        }
+
+        return run(getContext(), lox -> callable.call(lox.interpreter,
+                Arrays.stream(args).map(LoxScriptEngine::toLox).collect(Collectors.toList())));
+    }
+
+    private interface Work {
+        Object run(LoxContext lox);
+    }
+
+    private Object run(ScriptContext context, Work work) throws ScriptException {
+        WriterStream out = lastOut;
+        if (out == null || out.writer != context.getWriter()) {
+            lastOut = out = new WriterStream(context.getWriter());
+        }
+        WriterStream err = lastErr;
+        if (err == null || err.writer != context.getErrorWriter()) {
+            lastErr = err = new WriterStream(context.getErrorWriter());
+        }
+        return run(context, out.stream, err.stream, work);
+    }
+
+    private static Object run(ScriptContext context, PrintStream out, PrintStream err, Work work)
+            throws ScriptException {
+        Reader reader = context.getReader() == null ? new StringReader("") : context.getReader();
+        LoxContext lox = new LoxContext(reader, out, err);
+
+        // Engine scope before global scope, like ScriptContext.getAttribute
+        Map<String, Object> defined = new HashMap<>();
+        for (int scope : new int[] {ScriptContext.GLOBAL_SCOPE, ScriptContext.ENGINE_SCOPE}) {
+            Bindings bindings = context.getBindings(scope);
+            if (bindings == null) continue;
+            bindings.forEach((name, value) -> defined.put(name, toLox(value)));
+        }
+        defined.forEach(lox.interpreter.globals::define);
+
+        try {
+            return work.run(lox);
+        } catch (RuntimeError error) {
+            throw new ScriptException(error.getMessage(), fileName(context), error.token.line);
+        } catch (NativeError error) {
+            throw new ScriptException(error.getMessage());
+        } finally {
+            out.flush();
+            err.flush();
+            storeGlobals(lox, defined, context.getBindings(ScriptContext.ENGINE_SCOPE));
+        }
+    }
+
+    private static void storeGlobals(LoxContext lox, Map<String, Object> defined, Bindings bindings) {
+        if (bindings == null) return;
+
+        lox.interpreter.globals.values.forEach((name, value) -> {
+            if (value != null && value == natives.get(name)) return;
+            if (defined.containsKey(name) && defined.get(name) == value) return;
+            bindings.put(name, value);
+        });
+    }
+
+    private static Object toLox(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number && !(value instanceof Long) && !(value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    // ScriptException only puts the line into its message with a file name
+    private static String fileName(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? "<eval>" : name.toString();
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        try (BufferedReader lines = new BufferedReader(reader)) {
+            return lines.lines().collect(Collectors.joining("\n"));
+        } catch (IOException | UncheckedIOException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    // Lox prints to PrintStreams, script contexts have Writers
+    private static class WriterStream {
+        final Writer writer;
+        final PrintStream stream;
+
+        WriterStream(Writer writer) {
+            this.writer = writer;
+            if (writer == null) {
+                stream = new PrintStream(OutputStream.nullOutputStream());
+                return;
+            }
+
+            OutputStream decoded = new OutputStream() {
+                private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+                @Override
+                public void write(int b) {
+                    pending.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    pending.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    writer.write(pending.toString(StandardCharsets.UTF_8));
+                    writer.flush();
+                    pending.reset();
+                }
+            };
+            stream = new PrintStream(decoded, true, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class LoxCompiledScript extends CompiledScript {
+        private final LoxScriptEngine engine;
+        private final List<Stmt> statements;
+
+        LoxCompiledScript(LoxScriptEngine engine, List<Stmt> statements) {
+            this.engine = engine;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return engine.run(context, lox -> {
+                lox.interpreter.run(statements);
+                return lox.interpreter.lastResult();
+            });
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.enielsen.lox;
+
+import java.util.function.Consumer;
+
+// A hash set of Lox values, set(1, 2, 3). The same values are the same as map
+// keys, see LoxMap, which holds the elements.
+class LoxSet implements NativeClass.Instance {
+
+    private final LoxMap elements = new LoxMap();
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
+
+    void add(Object element) {
+        elements.put(element, Boolean.TRUE);
+    }
+
+    boolean contains(Object element) {
+        return elements.containsKey(element);
+    }
+
+    boolean remove(Object element) {
+        return elements.remove(element) != null;
+    }
+
+    void forEach(Consumer<Object> action) {
+        elements.forEach((element, present) -> action.accept(element));
+    }
+
+    int length() {
+        return elements.length();
+    }
+
+    private static final NativeClass<LoxSet> TYPE = new NativeClass<LoxSet>("Set", set -> set.frozen)
+            .variadicMutator("add", (interpreter, set, arguments) -> {
+                arguments.forEach(set::add);
+                return null;
+            })
+            .method("has", 1, (interpreter, set, arguments) -> set.contains(arguments.get(0)))
+            .mutator("remove", 1, (interpreter, set, arguments) -> set.remove(arguments.get(0)))
+            .method("values", 0, (interpreter, set, arguments) -> {
+                LoxArray array = new LoxArray();
+                set.forEach(array::add);
+                return array;
+            })
+            .method("length", 0, (interpreter, set, arguments) -> (long) set.length())
+            .method("isEmpty", 0, (interpreter, set, arguments) -> set.length() == 0);
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+}
@@ -0,0 +1,143 @@
+package com.enielsen.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+// A map ordered by its keys, sortedMap() or sortedMap(comparator), in a
+// red-black tree. Besides lookups it answers range queries: the first and last
+// key, the nearest key below or above a value, and the keys between two values.
+//
+// The comparator is Lox code, so every operation says which interpreter runs
+// it: the key it looks for carries the interpreter, and the tree always
+// compares that key with the ones it holds. Copies for forks and snapshots are
+// built from the entries in order, without calling the comparator.
+class LoxSortedMap implements NativeClass.Instance {
+
+    private LoxComparator comparator;
+    private TreeMap<Key, Object> entries;
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
+
+    LoxSortedMap(LoxComparator comparator) {
+        this.comparator = comparator;
+        this.entries = new TreeMap<>(this::compare);
+    }
+
+    LoxCallable comparator() {
+        return comparator.callable;
+    }
+
+    // For a frozen copy of the comparator, see DeepFreeze
+    void setComparator(LoxCallable comparator) {
+        this.comparator = new LoxComparator(comparator);
+    }
+
+    // Replaces the entries with ones that are already in this order. The keys
+    // are placed by their position in it, the comparator is not called.
+    void load(LoxCallable comparator, List<Map.Entry<Object, Object>> sorted) {
+        this.comparator = new LoxComparator(comparator);
+        this.entries = new TreeMap<>(this::compare);
+        for (int i = 0; i < sorted.size(); i++) {
+            entries.put(new Key(sorted.get(i).getKey(), i), sorted.get(i).getValue());
+        }
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        entries.forEach((key, value) -> action.accept(key.value, value));
+    }
+
+    void replaceValues(UnaryOperator<Object> replacement) {
+        entries.replaceAll((key, value) -> replacement.apply(value));
+    }
+
+    int length() {
+        return entries.size();
+    }
+
+    private int compare(Key a, Key b) {
+        // Two loaded keys while loading, see load()
+        if (a.interpreter == null && b.interpreter == null) return Integer.compare(a.position, b.position);
+        return comparator.compare(a.interpreter != null ? a.interpreter : b.interpreter, a.value, b.value);
+    }
+
+    private static final NativeClass<LoxSortedMap> TYPE = new NativeClass<LoxSortedMap>("SortedMap", map -> map.frozen)
+            .method("get", 1, (interpreter, map, arguments) ->
+                    interpreter.adopt(map.entries.get(new Key(arguments.get(0), interpreter))))
+            .mutator("put", 2, (interpreter, map, arguments) -> {
+                Key key = new Key(arguments.get(0), interpreter);
+                map.entries.put(key, arguments.get(1));
+                // Kept if the key is new, but the interpreter is not
+                key.interpreter = null;
+                return null;
+            })
+            .method("has", 1, (interpreter, map, arguments) ->
+                    map.entries.containsKey(new Key(arguments.get(0), interpreter)))
+            .mutator("remove", 1, (interpreter, map, arguments) ->
+                    interpreter.adopt(map.entries.remove(new Key(arguments.get(0), interpreter))))
+            .method("first", 0, (interpreter, map, arguments) ->
+                    key(interpreter, map.entries.firstEntry()))
+            .method("last", 0, (interpreter, map, arguments) ->
+                    key(interpreter, map.entries.lastEntry()))
+            // The greatest key less than or equal to the argument
+            .method("floor", 1, (interpreter, map, arguments) ->
+                    key(interpreter, map.entries.floorEntry(new Key(arguments.get(0), interpreter))))
+            // The least key greater than or equal to the argument
+            .method("ceiling", 1, (interpreter, map, arguments) ->
+                    key(interpreter, map.entries.ceilingEntry(new Key(arguments.get(0), interpreter))))
+            // The keys from the first argument up to but not including the second
+            .method("range", 2, (interpreter, map, arguments) -> {
+                Key from = new Key(arguments.get(0), interpreter);
+                Key to = new Key(arguments.get(1), interpreter);
+                if (map.compare(from, to) > 0) return new LoxArray();
+                return keys(map.entries.subMap(from, true, to, false));
+            })
+            .method("keys", 0, (interpreter, map, arguments) -> keys(map.entries))
+            .method("values", 0, (interpreter, map, arguments) -> {
+                LoxArray array = new LoxArray();
+                map.entries.values().forEach(array::add);
+                return array;
+            })
+            .method("length", 0, (interpreter, map, arguments) -> (long) map.length())
+            .method("isEmpty", 0, (interpreter, map, arguments) -> map.length() == 0);
+
+    private static Object key(Interpreter interpreter, Map.Entry<Key, Object> entry) {
+        return entry == null ? null : interpreter.adopt(entry.getKey().value);
+    }
+
+    private static LoxArray keys(Map<Key, Object> entries) {
+        LoxArray array = new LoxArray();
+        entries.keySet().forEach(key -> array.add(key.value));
+        return array;
+    }
+
+    // A key of the tree. The one an operation looks for holds the interpreter
+    // that runs the comparator; the keys the tree keeps never do.
+    private static final class Key {
+        final Object value;
+        // Where load() put it, -1 for the others
+        final int position;
+        Interpreter interpreter;
+
+        Key(Object value, Interpreter interpreter) {
+            this.value = value;
+            this.position = -1;
+            this.interpreter = interpreter;
+        }
+
+        Key(Object value, int position) {
+            this.value = value;
+            this.position = position;
+            this.interpreter = null;
+        }
+    }
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+}
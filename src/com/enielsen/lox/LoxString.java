@@ -0,0 +1,76 @@
+package com.enielsen.lox;
+
+// The methods of strings, "a,b".split(","). Strings are Java strings, so their
+// methods are declared here instead of on a class of their own, see
+// Interpreter.visitGetExpr. Searching, splitting and replacing look for the
+// text as it is, not for a pattern.
+final class LoxString {
+
+    private LoxString() {}
+
+    static LoxCallable getMethod(String string, Token name) {
+        return TYPE.bind(string, name);
+    }
+
+    private static final String BOUNDS_ERROR_MSG = "Substring index out of bounds.";
+
+    private static final NativeClass<String> TYPE = new NativeClass<String>("String")
+            .method("length", 0, (interpreter, string, arguments) -> (long) string.length())
+            // The parts between the separators, the characters if it is empty
+            .method("split", 1, (interpreter, string, arguments) -> split(string, text(arguments.get(0))))
+            // The elements of an array with this string between them
+            .method("join", 1, (interpreter, string, arguments) -> {
+                if (!(arguments.get(0) instanceof LoxArray)) throw new NativeError("Can only join an array.");
+                LoxArray array = (LoxArray) arguments.get(0);
+                StringBuilder joined = new StringBuilder();
+                for (int i = 0; i < array.length(); i++) {
+                    if (i > 0) joined.append(string);
+                    joined.append(interpreter.stringify(array.element(i)));
+                }
+                return joined.toString();
+            })
+            // -1 if it is not found
+            .method("indexOf", 1, (interpreter, string, arguments) ->
+                    (long) string.indexOf(text(arguments.get(0))))
+            // Every time it occurs
+            .method("replace", 2, (interpreter, string, arguments) ->
+                    string.replace(text(arguments.get(0)), text(arguments.get(1))))
+            // From the first index up to but not including the second
+            .method("substring", 2, (interpreter, string, arguments) -> {
+                int from = index(arguments.get(0), string.length());
+                int to = index(arguments.get(1), string.length());
+                if (from > to) throw new NativeError(BOUNDS_ERROR_MSG);
+                return string.substring(from, to);
+            })
+            .method("chars", 0, (interpreter, string, arguments) -> split(string, ""));
+
+    private static LoxArray split(String string, String separator) {
+        LoxArray parts = new LoxArray();
+        if (separator.isEmpty()) {
+            for (int i = 0; i < string.length(); i++) {
+                parts.add(String.valueOf(string.charAt(i)));
+            }
+            return parts;
+        }
+
+        int start = 0;
+        for (int end = string.indexOf(separator); end >= 0; end = string.indexOf(separator, start)) {
+            parts.add(string.substring(start, end));
+            start = end + separator.length();
+        }
+        parts.add(string.substring(start));
+        return parts;
+    }
+
+    private static String text(Object argument) {
+        if (!(argument instanceof String)) throw new NativeError("Argument must be a string.");
+        return (String) argument;
+    }
+
+    private static int index(Object argument, int length) {
+        if (!LoxNumber.isInteger(argument)) throw new NativeError("Substring index must be an integer.");
+        long index = LoxNumber.toLong(argument);
+        if (index < 0 || index > length) throw new NativeError(BOUNDS_ERROR_MSG);
+        return (int) index;
+    }
+}
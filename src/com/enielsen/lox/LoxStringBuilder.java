@@ -0,0 +1,44 @@
+package com.enielsen.lox;
+
+// A string built in place, stringBuilder("a", 1). append() adds the text of its
+// arguments to the end without making a new string each time like + does.
+class LoxStringBuilder implements NativeClass.Instance {
+
+    final StringBuilder text = new StringBuilder();
+    // Shared between forked interpreters and never changed again, see SharedHeap
+    boolean sealed = false;
+    // Never changed again and shared as it is, see DeepFreeze
+    boolean frozen = false;
+
+    LoxStringBuilder copy() {
+        LoxStringBuilder copy = new LoxStringBuilder();
+        copy.text.append(text);
+        return copy;
+    }
+
+    private static final NativeClass<LoxStringBuilder> TYPE =
+            new NativeClass<LoxStringBuilder>("StringBuilder", builder -> builder.frozen)
+            // Returns the builder, so appends can be chained
+            .variadicMutator("append", (interpreter, builder, arguments) -> {
+                for (Object argument : arguments) {
+                    builder.text.append(interpreter.stringify(argument));
+                }
+                return builder;
+            })
+            .mutator("clear", 0, (interpreter, builder, arguments) -> {
+                builder.text.setLength(0);
+                return null;
+            })
+            .method("length", 0, (interpreter, builder, arguments) -> (long) builder.text.length())
+            .method("toString", 0, (interpreter, builder, arguments) -> builder.text.toString());
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package com.enielsen.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A persistent vector, vector(1, 2, 3). Changing it returns a new vector and
+// leaves the old one as it was, sharing all but O(log32 n) of its nodes.
+//
+// The elements are in a trie with 32 children per node, indexed by 5 bits of
+// the index per level, plus a tail of up to 32 elements that is not in the
+// trie yet, so adding at the end usually copies only the tail.
+class LoxVector implements LoxIndexable, NativeClass.Instance {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_TAIL = new Object[0];
+
+    private int size = 0;
+    // Bits to shift an index by for the root's children
+    private int shift = BITS;
+    private Object[] root = new Object[WIDTH];
+    private Object[] tail = EMPTY_TAIL;
+    // Its elements are sealed, see SharedHeap. A vector never changes, so
+    // it is shared as it is.
+    boolean sealed = false;
+
+    LoxVector() {
+    }
+
+    private LoxVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    static LoxVector of(List<Object> elements) {
+        LoxVector vector = new LoxVector();
+        vector.load(elements);
+        return vector;
+    }
+
+    // Replaces the elements, for building a vector before anyone can see it
+    void load(List<Object> elements) {
+        LoxVector vector = new LoxVector();
+        for (Object element : elements) {
+            vector = vector.add(element);
+        }
+        size = vector.size;
+        shift = vector.shift;
+        root = vector.root;
+        tail = vector.tail;
+    }
+
+    // Index must be in bounds
+    Object element(int index) {
+        return leafFor(index)[index & MASK];
+    }
+
+    LoxVector add(Object element) {
+        // Room in the tail
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new LoxVector(size + 1, shift, root, newTail);
+        }
+
+        // The full tail goes into the trie, which gets a new level when full
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new LoxVector(size + 1, newShift, newRoot, new Object[] {element});
+    }
+
+    LoxVector set(int index, Object element) {
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new LoxVector(size, shift, root, newTail);
+        }
+        return new LoxVector(size, shift, set(shift, root, index, element), tail);
+    }
+
+    // Without the last element
+    LoxVector removeLast() {
+        if (size == 1) return new LoxVector();
+        if (size - tailOffset() > 1) {
+            return new LoxVector(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+
+        // The last leaf of the trie becomes the tail
+        Object[] newTail = leafFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) newRoot = new Object[WIDTH];
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new LoxVector(size - 1, newShift, newRoot, newTail);
+    }
+
+    void forEach(Consumer<Object> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(element(i));
+        }
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    // Where the tail starts, the trie only holds whole leaves
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private static Object[] set(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy[child] = set(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[child] = leaf;
+        } else {
+            Object[] node = (Object[]) parent[child];
+            copy[child] = node != null ? pushTail(level - BITS, node, leaf) : newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        if (level == 0) return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    // null if nothing is left of the node
+    private Object[] popTail(int level, Object[] node) {
+        int child = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] newChild = popTail(level - BITS, (Object[]) node[child]);
+            if (newChild == null && child == 0) return null;
+            Object[] copy = node.clone();
+            copy[child] = newChild;
+            return copy;
+        }
+        if (child == 0) return null;
+        Object[] copy = node.clone();
+        copy[child] = null;
+        return copy;
+    }
+
+    private static final String BOUNDS_ERROR_MSG = "Vector index out of bounds.";
+
+    private static final NativeClass<LoxVector> TYPE = new NativeClass<LoxVector>("Vector")
+            .variadic("add", (interpreter, vector, arguments) -> {
+                for (Object argument : arguments) {
+                    vector = vector.add(argument);
+                }
+                return vector;
+            })
+            .method("set", 2, (interpreter, vector, arguments) -> {
+                int index = vector.index(null, arguments.get(0));
+                if (index < 0) throw new NativeError(BOUNDS_ERROR_MSG);
+                return vector.set(index, arguments.get(1));
+            })
+            .method("removeLast", 0, (interpreter, vector, arguments) -> {
+                if (vector.size == 0) throw new NativeError("Vector is empty.");
+                return vector.removeLast();
+            })
+            .method("toArray", 0, (interpreter, vector, arguments) -> {
+                LoxArray array = new LoxArray();
+                vector.forEach(array::add);
+                return array;
+            })
+            .method("length", 0, (interpreter, vector, arguments) -> (long) vector.size)
+            .method("isEmpty", 0, (interpreter, vector, arguments) -> vector.size == 0);
+
+    @Override
+    public LoxCallable getMethod(Token name) {
+        return TYPE.bind(this, name);
+    }
+
+    @Override
+    public Object get(Token token, Object index) {
+        int i = index(token, index);
+        if (i < 0) throw new RuntimeError(token, BOUNDS_ERROR_MSG);
+        return element(i);
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        throw new RuntimeError(token, "Vectors can't be changed, set() returns a new one.");
+    }
+
+    @Override
+    public LoxVector slice(Token token, Object fromIndex, Object toIndex) {
+        int from = LoxIndexable.bound(token, fromIndex, size, 0);
+        int to = LoxIndexable.bound(token, toIndex, size, size);
+        if (from == 0 && to == size) return this;
+
+        LoxVector slice = new LoxVector();
+        for (int i = from; i < to; i++) {
+            slice = slice.add(element(i));
+        }
+        return slice;
+    }
+
+    // An index in bounds, negative ones count from the end, -1 if out of bounds
+    private int index(Token token, Object index) {
+        if (LoxNumber.isInteger(index)) {
+            long idx = LoxNumber.toLong(index);
+            long i = idx < 0 ? idx + size : idx;
+            return i < 0 || i >= size ? -1 : (int) i;
+        }
+        if (token == null) throw new NativeError("Vector index must be an integer.");
+        throw new RuntimeError(token, "Vector index must be an integer.");
+    }
+}
@@ -0,0 +1,103 @@
+package com.enielsen.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// The methods of a built-in type such as LoxArray. They are declared once per
+// type and get the receiver as an argument, so a value of the type needs no
+// method objects of its own. Getting a method binds it to the receiver.
+//
+// Methods that change the receiver are declared as mutators, and fail when it
+// is frozen, see DeepFreeze.
+final class NativeClass<T> {
+
+    // A value of a built-in type
+    interface Instance {
+        LoxCallable getMethod(Token name);
+    }
+
+    interface Method<T> {
+        Object call(Interpreter interpreter, T self, List<Object> arguments);
+    }
+
+    private static class Declared<T> {
+        final int arity;
+        final boolean variadic;
+        final boolean mutator;
+        final Method<T> method;
+
+        Declared(int arity, boolean variadic, boolean mutator, Method<T> method) {
+            this.arity = arity;
+            this.variadic = variadic;
+            this.mutator = mutator;
+            this.method = method;
+        }
+    }
+
+    private final String name;
+    private final Predicate<T> frozen;
+    private final Map<String, Declared<T>> methods = new HashMap<>();
+
+    // For types that are never changed
+    NativeClass(String name) {
+        this(name, self -> false);
+    }
+
+    NativeClass(String name, Predicate<T> frozen) {
+        this.name = name;
+        this.frozen = frozen;
+    }
+
+    NativeClass<T> method(String name, int arity, Method<T> method) {
+        methods.put(name, new Declared<>(arity, false, false, method));
+        return this;
+    }
+
+    // Takes any number of arguments
+    NativeClass<T> variadic(String name, Method<T> method) {
+        methods.put(name, new Declared<>(0, true, false, method));
+        return this;
+    }
+
+    NativeClass<T> mutator(String name, int arity, Method<T> method) {
+        methods.put(name, new Declared<>(arity, false, true, method));
+        return this;
+    }
+
+    NativeClass<T> variadicMutator(String name, Method<T> method) {
+        methods.put(name, new Declared<>(0, true, true, method));
+        return this;
+    }
+
+    LoxCallable bind(T self, Token name) {
+        Declared<T> declared = methods.get(name.lexeme);
+        if (declared == null) throw new RuntimeError(name, "No such method.");
+
+        return new LoxCallable() {
+            @Override
+            public int arity() {
+                return declared.arity;
+            }
+
+            @Override
+            public boolean variadic() {
+                return declared.variadic;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (declared.mutator && frozen.test(self)) {
+                    throw new NativeError("Can't change a frozen " + NativeClass.this.name + ".");
+                }
+                return declared.method.call(interpreter, self, arguments);
+            }
+
+            @Override
+            public String toString() {
+                return "<native method " + NativeClass.this.name + "." + name.lexeme + ">";
+            }
+        };
+    }
+}
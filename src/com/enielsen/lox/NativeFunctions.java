@@ -1,7 +1,10 @@
 package com.enielsen.lox;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 abstract class NativeFunctions {
@@ -11,6 +14,24 @@ abstract class NativeFunctions {
         environment.define("print", print);
         environment.define("prompt", prompt);
         environment.define("list", list);
+        environment.define("array", array);
+        environment.define("map", map);
+        environment.define("set", set);
+        environment.define("sortedMap", sortedMap);
+        environment.define("priorityQueue", priorityQueue);
+        environment.define("vector", vector);
+        environment.define("persistentMap", persistentMap);
+        environment.define("freeze", freeze);
+        environment.define("stringBuilder", stringBuilder);
+    }
+
+    // The natives by name, e.g. to tell them apart from values defined by scripts
+    static Map<String, LoxCallable> natives() {
+        Environment environment = new Environment();
+        defineNatives(environment);
+        Map<String, LoxCallable> natives = new HashMap<>();
+        environment.values.forEach((name, value) -> natives.put(name, (LoxCallable) value));
+        return Collections.unmodifiableMap(natives);
     }
 
     private static final LoxCallable clock = new LoxCallable() {
@@ -38,7 +59,7 @@ abstract class NativeFunctions {
 
         @Override
         public Object call(Interpreter interpreter, List<Object> arguments) {
-            System.out.println(arguments.stream()
+            interpreter.context.out.println(arguments.stream()
                     .map(interpreter::stringify)
                     .collect(Collectors.joining(" ")));
             return null;
@@ -58,11 +79,16 @@ abstract class NativeFunctions {
 
         @Override
         public Object call(Interpreter interpreter, List<Object> arguments) {
-            System.out.print(arguments.stream()
+            interpreter.context.out.print(arguments.stream()
                     .map(interpreter::stringify)
                     .collect(Collectors.joining(" ")));
-            java.util.Scanner sc = new Scanner(System.in);
-            return sc.nextLine();
+            interpreter.context.out.flush();
+            try {
+                // nil at the end of the input
+                return interpreter.context.input.readLine();
+            } catch (IOException e) {
+                throw new NativeError("Could not read input.");
+            }
         }
     };
 
@@ -82,4 +108,157 @@ abstract class NativeFunctions {
             return new LoxArray(arguments);
         }
     };
+
+    // array(n, fill) is n copies of fill. Arrays of numbers or booleans made
+    // this way are stored unboxed from the start.
+    private static final LoxCallable array = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            Object size = arguments.get(0);
+            if (!LoxNumber.isInteger(size) || LoxNumber.toLong(size) < 0 ||
+                    LoxNumber.toLong(size) > Integer.MAX_VALUE - 8) {
+                throw new NativeError("Array size must be a non-negative integer.");
+            }
+            return LoxArray.filled((int) LoxNumber.toLong(size), arguments.get(1));
+        }
+    };
+
+    // The same as {}
+    private static final LoxCallable map = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return new LoxMap();
+        }
+    };
+
+    // set(...) holds its arguments
+    private static final LoxCallable set = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public boolean variadic() {
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            LoxSet set = new LoxSet();
+            arguments.forEach(set::add);
+            return set;
+        }
+    };
+
+    // sortedMap() or sortedMap(comparator)
+    private static final LoxCallable sortedMap = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public boolean variadic() {
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return new LoxSortedMap(LoxComparator.of(arguments));
+        }
+    };
+
+    // priorityQueue() or priorityQueue(comparator)
+    private static final LoxCallable priorityQueue = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public boolean variadic() {
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return new LoxPriorityQueue(LoxComparator.of(arguments));
+        }
+    };
+
+    // vector(...) holds its arguments
+    private static final LoxCallable vector = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public boolean variadic() {
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return LoxVector.of(arguments);
+        }
+    };
+
+    private static final LoxCallable persistentMap = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return new LoxPersistentMap();
+        }
+    };
+
+    // stringBuilder(...) starts with the text of its arguments
+    private static final LoxCallable stringBuilder = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public boolean variadic() {
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            LoxStringBuilder builder = new LoxStringBuilder();
+            for (Object argument : arguments) {
+                builder.text.append(interpreter.stringify(argument));
+            }
+            return builder;
+        }
+    };
+
+    // freeze(value) makes it immutable all the way down and returns it
+    private static final LoxCallable freeze = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return DeepFreeze.freeze(interpreter, arguments.get(0));
+        }
+    };
 }
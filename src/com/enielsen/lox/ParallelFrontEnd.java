@@ -0,0 +1,113 @@
+package com.enielsen.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.enielsen.lox.TokenType.*;
+
+// Parses and resolves a token list on the fork-join pool. The tokens are split
+// in front of top-level function and class declarations; top-level code lives
+// in the global scope, so every piece can be parsed and resolved on its own.
+// Diagnostics are buffered per piece and replayed in source order, so the
+// output is the same as for a sequential run.
+class ParallelFrontEnd {
+    // Below this a piece is not worth a task of its own
+    private static final int MIN_CHUNK_TOKENS = 4096;
+
+    private ParallelFrontEnd() {}
+
+    private static class Result<T> {
+        final T value;
+        final LoxContext collected;
+
+        Result(T value, LoxContext collected) {
+            this.value = value;
+            this.collected = collected;
+        }
+    }
+
+    static List<Stmt> compile(LoxContext context, List<Token> tokens, boolean lazy) {
+        List<List<Token>> chunks = split(tokens);
+
+        List<Result<List<Stmt>>> parsed = chunks.parallelStream()
+                .map(chunk -> buffered(context, collecting -> new Parser(collecting, chunk, lazy).parse()))
+                .collect(Collectors.toList());
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Result<List<Stmt>> result : parsed) {
+            context.replay(result.collected);
+            statements.addAll(result.value);
+        }
+
+        // Like a sequential run, don't resolve anything if there was a syntax error
+        if (context.hadError) return statements;
+
+        List<Result<Void>> resolved = parsed.parallelStream()
+                .map(result -> buffered(context, collecting -> {
+                    new Resolver(collecting).resolve(result.value);
+                    return (Void) null;
+                }))
+                .collect(Collectors.toList());
+        for (Result<Void> result : resolved) {
+            context.replay(result.collected);
+        }
+
+        return statements;
+    }
+
+    private static <T> Result<T> buffered(LoxContext context, Function<LoxContext, T> work) {
+        LoxContext collecting = context.collecting();
+        return new Result<>(work.apply(collecting), collecting);
+    }
+
+    private static List<List<Token>> split(List<Token> tokens) {
+        int tasks = ForkJoinPool.getCommonPoolParallelism() * 4;
+        int target = Math.max(MIN_CHUNK_TOKENS, tokens.size() / tasks);
+
+        List<List<Token>> chunks = new ArrayList<>();
+        int start = 0;
+        int depth = 0;
+        // The last token is the EOF
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            switch (tokens.get(i).type) {
+                case LEFT_PAREN:
+                case LEFT_BRACE:
+                case LEFT_BRACKET:
+                    depth++;
+                    break;
+                case RIGHT_PAREN:
+                case RIGHT_BRACE:
+                case RIGHT_BRACKET:
+                    depth--;
+                    break;
+                case SEMICOLON:
+                    break;
+                default:
+                    continue;
+            }
+
+            if (depth == 0 && i + 1 - start >= target && startsDeclaration(tokens, i + 1)) {
+                chunks.add(chunk(tokens, start, i + 1));
+                start = i + 1;
+            }
+        }
+        chunks.add(chunk(tokens, start, tokens.size() - 1));
+        return chunks;
+    }
+
+    private static boolean startsDeclaration(List<Token> tokens, int index) {
+        TokenType type = tokens.get(index).type;
+        return type == CLASS || (type == FUN && tokens.get(index + 1).type == IDENTIFIER);
+    }
+
+    private static List<Token> chunk(List<Token> tokens, int from, int to) {
+        List<Token> chunk = new ArrayList<>(to - from + 1);
+        chunk.addAll(tokens.subList(from, to));
+        Token next = tokens.get(to);
+        chunk.add(new Token(EOF, "", null, next.line));
+        return chunk;
+    }
+}
@@ -1,10 +1,13 @@
 package com.enielsen.lox;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.Map;
 
 import static com.enielsen.lox.TokenType.*;
 
@@ -13,13 +16,76 @@ class Parser {
 
     private static final int MAX_ARGS = 32;
 
+    // Binding power of each operator that can follow an operand, loosest first.
+    private enum Precedence {
+        ASSIGNMENT,  // =
+        CONDITIONAL, // ?:
+        OR,          // or
+        AND,         // and
+        EQUALITY,    // == !=
+        COMPARISON,  // > >= < <=
+        BIT_OR,      // |
+        BIT_XOR,     // ^
+        BIT_AND,     // &
+        SHIFT,       // << >>
+        TERM,        // + -
+        FACTOR,      // * /
+        UNARY,       // ! - ++ -- (prefix)
+        CALL;        // () . [] ++ -- (postfix)
+
+        Precedence next() {
+            return values()[ordinal() + 1];
+        }
+    }
+
+    // Indexed by TokenType ordinal, null for tokens that are not infix/postfix operators
+    private static final Precedence[] INFIX_PRECEDENCE = new Precedence[TokenType.values().length];
+
+    static {
+        infixOperators(Precedence.ASSIGNMENT, EQUAL);
+        infixOperators(Precedence.CONDITIONAL, QUESTION_MARK);
+        infixOperators(Precedence.OR, OR);
+        infixOperators(Precedence.AND, AND);
+        infixOperators(Precedence.EQUALITY, BANG_EQUAL, EQUAL_EQUAL);
+        infixOperators(Precedence.COMPARISON, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+        infixOperators(Precedence.BIT_OR, PIPE);
+        infixOperators(Precedence.BIT_XOR, CARET);
+        infixOperators(Precedence.BIT_AND, AMPERSAND);
+        infixOperators(Precedence.SHIFT, LESS_LESS, GREATER_GREATER);
+        infixOperators(Precedence.TERM, MINUS, PLUS);
+        infixOperators(Precedence.FACTOR, SLASH, STAR);
+        infixOperators(Precedence.CALL, LEFT_PAREN, DOT, LEFT_BRACKET, PLUS_PLUS, MINUS_MINUS);
+    }
+
+    private static void infixOperators(Precedence precedence, TokenType... types) {
+        for (TokenType type : types) {
+            INFIX_PRECEDENCE[type.ordinal()] = precedence;
+        }
+    }
+
+    private final LoxContext context;
     private final List<Token> tokens;
+    // Literal nodes carry no position or resolver data, so equal constants share
+    // one node. Like the Scanner's pools this starts over once it is full.
+    private static final int MAX_POOLED_LITERALS = 1 << 16;
+    private final Map<Object, Expr.Literal> literals = new HashMap<>();
+    private final Expr.Literal nilLiteral = new Expr.Literal(null);
     private int current = 0;
     private int loopLevel = 0; // keep track of how deep our loops are for break statements
+    private int scopeDepth = 0; // keep track of how deep our blocks are for lazy function bodies
+    private final boolean lazy;
     private boolean inClass = false; // keep track of if we are currently parsing a class declaration
 
-    Parser(List<Token> tokens) {
+    Parser(LoxContext context, List<Token> tokens) {
+        this(context, tokens, false);
+    }
+
+    // A lazy parser only brace-matches function bodies that are not nested in
+    // any scope, and leaves them to be parsed on the function's first call.
+    Parser(LoxContext context, List<Token> tokens, boolean lazy) {
+        this.context = context;
         this.tokens = tokens;
+        this.lazy = lazy;
     }
 
     List<Stmt> parse() {
@@ -35,6 +101,19 @@ class Parser {
         return statements;
     }
 
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // Parses a single top-level declaration and forgets the tokens it used,
+    // so a script can be executed while it is still being scanned.
+    Stmt next() {
+        Stmt statement = declaration();
+        tokens.subList(0, current - 1).clear();
+        current = 1;
+        return statement;
+    }
+
     private Stmt declaration() {
         try {
             if (match(CLASS)) return classDeclaration();
@@ -44,6 +123,7 @@ class Parser {
                 return function("function");
             }
             if (match(VAR)) return varDeclaration();
+            if (match(IMPORT)) return importDeclaration();
 
             return statement();
         } catch (ParseError error) {
@@ -87,6 +167,8 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        // The desugared loop is wrapped in a block
+        scopeDepth++;
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initalizer;
@@ -120,12 +202,13 @@ class Parser {
             ));
         }
 
-        if (condition == null) condition = new Expr.Literal(true);
+        if (condition == null) condition = literal(true);
         body = new Stmt.While(condition, body);
 
         if (initalizer != null) {
             body = new Stmt.Block(Arrays.asList(initalizer, body));
         }
+        scopeDepth--;
         return body;
     }
 
@@ -171,6 +254,30 @@ class Parser {
         return new Stmt.Var(name, initalizer);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+
+        Token name;
+        if (check(IDENTIFIER) && peek().lexeme.equals("as")) {
+            advance();
+            name = consume(IDENTIFIER, "Expect module name after 'as'.");
+        } else {
+            // import "lib/strings.lox"; is called strings
+            Path fileName = Paths.get((String) path.literal).getFileName();
+            String file = fileName == null ? "" : fileName.toString();
+            int extension = file.lastIndexOf('.');
+            String module = extension > 0 ? file.substring(0, extension) : file;
+            if (!module.matches("[A-Za-z_][A-Za-z_0-9]*")) {
+                throw error(path, "Expect 'as' and a module name for this path.");
+            }
+            name = new Token(IDENTIFIER, module, null, path.line);
+        }
+
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path, name);
+    }
+
     private Stmt whileStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
@@ -219,216 +326,174 @@ class Parser {
             consume(RIGHT_PAREN, "Expect ')' after parameters.");
         }
 
-        consume(LEFT_BRACE, "Expect '{' before " + kind);
-        List<Stmt> body = block();
-        return new Expr.Function(parameters, body);
+        Token brace = consume(LEFT_BRACE, "Expect '{' before " + kind);
+        Expr.Function function = new Expr.Function(parameters);
+        if (lazy && scopeDepth == 0 && loopLevel == 0) {
+            function.deferred = new DeferredBody(brace, skipBlock());
+        } else {
+            function.body = block();
+        }
+        return function;
     }
 
     private List<Stmt> block() {
-        List<Stmt> statements = new ArrayList<>();
+        ArrayList<Stmt> statements = new ArrayList<>();
 
+        scopeDepth++;
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
+        scopeDepth--;
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
+        statements.trimToSize();
         return statements;
     }
 
-    private Expr assignment() {
-        Expr expr = conditional();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = ((Expr.Get) expr);
-                return new Expr.Set(get.object, get.name, value);
-            } else if (expr instanceof Expr.IndexGet) {
-                Expr.IndexGet get = ((Expr.IndexGet) expr);
-                return new Expr.IndexSet(get.indexee, get.bracket, get.index, value);
-            }
-
-            error(equals, "Invalid assignment target.");
-        }
-        return expr;
-    }
-
-    private Expr array() {
-        List<Expr> elements = new ArrayList<>();
-        if (!check(RIGHT_BRACKET)) {
-            do {
-                elements.add(expression());
-            } while (match(COMMA));
+    // Skips to the brace closing the current block, returning the tokens in between
+    private List<Token> skipBlock() {
+        int start = current;
+        int depth = 1;
+        while (!isAtEnd()) {
+            if (check(LEFT_BRACE)) depth++;
+            if (check(RIGHT_BRACE) && --depth == 0) break;
+            advance();
         }
 
-        Token bracket = consume(RIGHT_BRACKET, "Expect ']' after list initializer.");
-
-        return new Expr.Array(bracket, elements);
+        // Copied, the token list may be a stream or much larger than the body
+        List<Token> body = new ArrayList<>(tokens.subList(start, current));
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        return body;
     }
 
-    private Expr conditional() {
-        Expr expr = or();
-
-        if (match(QUESTION_MARK)) {
-            Expr thenBranch = expression();
-            consume(COLON, "Expect ':' after then-branch of conditional expression.");
-            Expr elseBranch = conditional();
-            expr = new Expr.Conditional(expr, thenBranch, elseBranch);
-        }
-        return expr;
+    private Expr expression() {
+        return expression(Precedence.ASSIGNMENT);
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
+    // Precedence climbing: parse a prefix operand, then keep folding in infix
+    // and postfix operators for as long as they bind at least as tightly as
+    // the minimum we were asked for.
+    private Expr expression(Precedence minimum) {
+        Expr expr = prefix();
 
-    private Expr and() {
-        Expr expr = equality();
+        while (true) {
+            Precedence precedence = INFIX_PRECEDENCE[peek().type.ordinal()];
+            if (precedence == null || precedence.compareTo(minimum) < 0) break;
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+            expr = infix(expr, advance(), precedence);
         }
 
         return expr;
     }
 
-    private Expr expression() {
-        return assignment();
-    }
-
-    private Expr leftAssociative(Supplier<Expr> operand, TokenType... matches) {
-        Expr expr = operand.get();
-
-        while(match(matches)) {
+    private Expr prefix() {
+        if (match(BANG, MINUS, PLUS_PLUS, MINUS_MINUS)) {
             Token operator = previous();
-            Expr right = operand.get();
-            expr = new Expr.Binary(expr, operator, right);
+            Expr right = expression(Precedence.UNARY);
+            return new Expr.Unary(operator, right, false);
         }
 
-        return expr;
+        return primary();
     }
 
-    private Expr equality() {
-        return leftAssociative(this::comparison, BANG_EQUAL, EQUAL_EQUAL);
-        /*Expr expr = comparison();
-
-        while(match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr infix(Expr left, Token operator, Precedence precedence) {
+        switch (operator.type) {
+            case EQUAL: {
+                // Right associative
+                Expr value = expression(Precedence.ASSIGNMENT);
+                return assignment(left, operator, value);
+            }
+            case QUESTION_MARK: {
+                Expr thenBranch = expression();
+                consume(COLON, "Expect ':' after then-branch of conditional expression.");
+                Expr elseBranch = expression(Precedence.CONDITIONAL);
+                return new Expr.Conditional(left, thenBranch, elseBranch);
+            }
+            case OR:
+            case AND:
+                return new Expr.Logical(left, operator, expression(precedence.next()));
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT: {
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, name);
+            }
+            case LEFT_BRACKET:
+                return finishIndexGet(left);
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                return new Expr.Unary(operator, left, true);
+            default:
+                return new Expr.Binary(left, operator, expression(precedence.next()));
         }
-
-        return expr;*/
     }
 
-    private Expr comparison() {
-        return leftAssociative(this::addition, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
-/*        Expr expr = addition();int i = 0
-
-        while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr assignment(Expr target, Token equals, Expr value) {
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Get) {
+            Expr.Get get = ((Expr.Get) target);
+            return new Expr.Set(get.object, get.name, value);
+        } else if (target instanceof Expr.IndexGet) {
+            Expr.IndexGet get = ((Expr.IndexGet) target);
+            return new Expr.IndexSet(get.indexee, get.bracket, get.index, value);
         }
 
-        return expr;*/
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr addition() {
-        return leftAssociative(this::multiplication, MINUS, PLUS);
-        /*Expr expr = multiplication();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr array() {
+        ArrayList<Expr> elements = new ArrayList<>();
+        if (!check(RIGHT_BRACKET)) {
+            do {
+                elements.add(expression());
+            } while (match(COMMA));
         }
 
-        return expr;*/
-    }
-
-    private Expr multiplication() {
-        return leftAssociative(this::unary, SLASH, STAR);
-        /*Expr expr = unary();
-
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+        Token bracket = consume(RIGHT_BRACKET, "Expect ']' after list initializer.");
+        elements.trimToSize();
 
-        return expr;*/
+        // Data-as-code is mostly constants, kept compactly
+        Expr data = DataTable.array(bracket, elements);
+        return data != null ? data : new Expr.Array(bracket, elements);
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS, PLUS_PLUS, MINUS_MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right, false);
-        }
-
-        // Unary prefix increment and decrement does not allow chaining
-        if (match(PLUS_PLUS, MINUS_MINUS)) {
-            Token operator = previous();
-            Expr right = primary();
-            return new Expr.Unary(operator, right, false);
+    private Expr map() {
+        ArrayList<Expr> keys = new ArrayList<>();
+        ArrayList<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_BRACE)) {
+            do {
+                keys.add(expression());
+                consume(COLON, "Expect ':' after map key.");
+                values.add(expression());
+            } while (match(COMMA));
         }
 
-        return postfix();
-    }
+        Token brace = consume(RIGHT_BRACE, "Expect '}' after map entries.");
+        keys.trimToSize();
+        values.trimToSize();
 
-    private Expr postfix() {
-        if (matchNext(PLUS_PLUS, MINUS_MINUS)) {
-            Token operator = peek();
-            current--;
-            Expr left = primary();
-            advance();
-            return new Expr.Unary(operator, left, true);
-        }
-        return call();
+        Expr data = DataTable.map(brace, keys, values);
+        return data != null ? data : new Expr.Map(brace, keys, values);
     }
 
-    private Expr call() {
-        Expr expr = primary();
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else if (match(LEFT_BRACKET)) {
-                expr = finishIndexGet(expr);
-            } else {
-                break;
-            }
+    private Expr finishIndexGet(Expr indexee) {
+        // Either bound of a slice can be left out, a[:] is all of a
+        Expr index = check(COLON) ? null : expression();
+        if (match(COLON)) {
+            Expr to = check(RIGHT_BRACKET) ? null : expression();
+            Token bracket = consume(RIGHT_BRACKET, "Expect ']' after slice.");
+            return new Expr.Slice(indexee, bracket, index, to);
         }
 
-        return expr;
-    }
-
-    private Expr finishIndexGet(Expr indexee) {
-        Expr index = expression();
         Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
         return new Expr.IndexGet(indexee, bracket, index);
     }
 
     private Expr finishCall(Expr callee) {
-        List<Expr> arguments = new ArrayList<>();
+        ArrayList<Expr> arguments = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
                 if (arguments.size() >= MAX_ARGS) {
@@ -439,20 +504,21 @@ class Parser {
         }
 
         Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        arguments.trimToSize();
 
         return new Expr.Call(callee, paren, arguments);
     }
 
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
+        if (match(FALSE)) return literal(false);
+        if (match(TRUE)) return literal(true);
+        if (match(NIL)) return nilLiteral;
         if (check(FUN) && !checkNext(IDENTIFIER)) {
             advance();
             return functionBody("function");
         }
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return literal(previous().literal);
         }
 
         if (match(SUPER)) {
@@ -478,9 +544,18 @@ class Parser {
             return array();
         }
 
+        if (match(LEFT_BRACE)) {
+            return map();
+        }
+
         throw error(peek(), "Expect expression");
     }
 
+    private Expr.Literal literal(Object value) {
+        if (literals.size() >= MAX_POOLED_LITERALS) literals.clear();
+        return literals.computeIfAbsent(value, Expr.Literal::new);
+    }
+
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if (check(type)) {
@@ -492,16 +567,6 @@ class Parser {
         return false;
     }
 
-    private boolean matchNext(TokenType... types) {
-        for (TokenType type : types) {
-            if (checkNext(type)) {
-                advance();
-                return true;
-            }
-        }
-        return false;
-    }
-
     private Token consume(TokenType type, String message) {
         if (check(type)) return advance();
 
@@ -545,7 +610,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        context.error(token, message);
         return new ParseError();
     }
 
@@ -7,23 +7,20 @@ import java.util.Stack;
 import java.util.stream.Collectors;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
+    private final LoxContext context;
     private final Stack<Map<String, Variable>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    private boolean inTopLevelClass = false;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
-
-    private enum FunctionType {
+    enum FunctionType {
         NONE,
         FUNCTION,
         INITIALIZER,
         METHOD
     }
 
-    private enum ClassType {
+    enum ClassType {
         NONE,
         CLASS,
         SUBCLASS
@@ -45,6 +42,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         READ
     }
 
+    Resolver(LoxContext context) {
+        this.context = context;
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
@@ -66,7 +67,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         define(stmt.name);
 
         ClassType enclosingClass = currentClass;
+        boolean enclosingTopLevel = inTopLevelClass;
         currentClass = ClassType.CLASS;
+        inTopLevelClass = scopes.isEmpty() && currentFunction == FunctionType.NONE;
 
         if (stmt.superClass != null) {
             currentClass = ClassType.SUBCLASS;
@@ -89,6 +92,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         for (Stmt.Function method : stmt.classMethods) {
             beginScope();
             scopes.peek().put("this", new Variable(null, VariableState.READ));
+            if (method.function.deferred != null) method.function.deferred.classMethod = true;
             resolveFunction(method.function, FunctionType.METHOD);
             endScope();
         }
@@ -99,6 +103,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         }
 
         currentClass = enclosingClass;
+        inTopLevelClass = enclosingTopLevel;
         return null;
     }
 
@@ -126,11 +131,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Cannot return from top-level code");
+            context.error(stmt.keyword, "Cannot return from top-level code");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Cannot return a value from an initializer");
+                context.error(stmt.keyword, "Cannot return a value from an initializer");
             }
 
             resolve(stmt.value);
@@ -151,6 +156,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (!scopes.isEmpty()) {
+            context.error(stmt.keyword, "Can only import at top level.");
+        }
+        declare(stmt.name);
+        define(stmt.name);
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         declare(stmt.name);
@@ -174,7 +189,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
@@ -191,10 +206,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if (!scopes.isEmpty()
                 && scopes.peek().containsKey(expr.name.lexeme)
                 && scopes.peek().get(expr.name.lexeme).state == VariableState.DECLARED) {
-            Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+            context.error(expr.name, "Cannot read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
@@ -204,6 +219,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitMapExpr(Expr.Map expr) {
+        expr.keys.forEach(this::resolve);
+        expr.values.forEach(this::resolve);
+        return null;
+    }
+
+    @Override
+    public Void visitDataExpr(Expr.Data expr) {
+        for (Expr child : expr.table.children) {
+            resolve(child);
+        }
+        return null;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
@@ -234,6 +264,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitSliceExpr(Expr.Slice expr) {
+        resolve(expr.indexee);
+        if (expr.from != null) resolve(expr.from);
+        if (expr.to != null) resolve(expr.to);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
@@ -272,22 +310,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
+            context.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
+            context.error(expr.keyword, "Cannot use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in class without a superclass.");
+            context.error(expr.keyword, "Cannot use 'super' in class without a superclass.");
         } else {
-            resolveLocal(expr, expr.keyword);
+            expr.depth = resolveLocal(expr.keyword);
         }
         return null;
     }
@@ -333,11 +371,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
                 .collect(Collectors.toList());
         unread.stream()
                 .filter(var -> var.state == VariableState.DECLARED)
-                .forEach(var -> Lox.warning(var.name, "Local variable never defined."));
+                .forEach(var -> context.warning(var.name, "Local variable never defined."));
         unread.stream()
                 .filter(var -> var.state == VariableState.DEFINED)
-                .forEach(var -> Lox.warning(var.name, "Local variable never used."));
-                //.forEach(var -> Lox.warning(var.name, "Local variable is not used."));
+                .forEach(var -> context.warning(var.name, "Local variable never used."));
+                //.forEach(var -> context.warning(var.name, "Local variable is not used."));
     }
 
     private void declare(Token name) {
@@ -345,7 +383,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
         Map<String, Variable> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+            context.error(name, "Variable with this name already declared in this scope.");
         }
         scope.put(name.lexeme, new Variable(name, VariableState.DECLARED));
     }
@@ -356,15 +394,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         scopes.peek().get(name.lexeme).state = VariableState.DEFINED;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
                 scopes.get(i).get(name.lexeme).state = VariableState.READ;
-                return;
+                return scopes.size() - 1 - i;
             }
         }
         // Not found, assume it's global
+        return -1;
     }
 
     private boolean superExists(Token name) {
@@ -376,18 +414,65 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return false;
     }
 
+    // Resolves a lazily parsed body on its own, recreating the class scopes
+    // visitClassStmt would have had around it.
+    void resolveDeferred(Expr.Function function, List<Stmt> body) {
+        DeferredBody deferred = function.deferred;
+        currentClass = deferred.classType;
+
+        int classScopes = 0;
+        if (currentClass == ClassType.SUBCLASS) {
+            beginScope();
+            scopes.peek().put("super", new Variable(null, VariableState.READ));
+            classScopes++;
+        }
+        if (currentClass != ClassType.NONE) {
+            beginScope();
+            scopes.peek().put("this", new Variable(null, VariableState.READ));
+            classScopes++;
+        }
+        if (deferred.classMethod) {
+            beginScope();
+            scopes.peek().put("this", new Variable(null, VariableState.READ));
+            classScopes++;
+        }
+
+        resolveBody(function.parameters, body, deferred.functionType);
+
+        for (int i = 0; i < classScopes; i++) {
+            endScope();
+        }
+    }
+
     private void resolveFunction(Expr.Function function, FunctionType type) {
+        if (function.body == null) {
+            boolean topLevel = currentFunction == FunctionType.NONE
+                    && (currentClass == ClassType.NONE ? scopes.isEmpty() : inTopLevelClass);
+            if (topLevel) {
+                // Resolved on its first call, see DeferredBody
+                function.deferred.functionType = type;
+                function.deferred.classType = currentClass;
+                return;
+            }
+            function.body = function.deferred.parse(context);
+            function.deferred = null;
+        }
+
+        resolveBody(function.parameters, function.body, type);
+    }
+
+    private void resolveBody(List<Token> parameters, List<Stmt> body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
         beginScope();
-        if (function.parameters != null) {
-            for (Token param : function.parameters) {
+        if (parameters != null) {
+            for (Token param : parameters) {
                 declare(param);
                 define(param);
             }
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
         currentFunction = enclosingFunction;
     }
@@ -1,44 +1,92 @@
 package com.enielsen.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static com.enielsen.lox.TokenType.*;
 
 class Scanner {
-    private static final Map<String, TokenType> keywords;
+    // Tokens whose text is always the same share one lexeme String
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",         AND);
-        keywords.put("class",       CLASS);
-        keywords.put("else",        ELSE);
-        keywords.put("false",       FALSE);
-        keywords.put("for",         FOR);
-        keywords.put("fun",         FUN);
-        keywords.put("if",          IF);
-        keywords.put("nil",         NIL);
-        keywords.put("or",          OR);
-        keywords.put("print",       PRINT);
-        keywords.put("return",      RETURN);
-        keywords.put("super",       SUPER);
-        keywords.put("this",        THIS);
-        keywords.put("true",        TRUE);
-        keywords.put("var",         VAR);
-        keywords.put("while",       WHILE);
-        keywords.put("break",       BREAK);
-    }
-
-    private final String source;
+        fixed(LEFT_PAREN, "(");     fixed(RIGHT_PAREN, ")");
+        fixed(LEFT_BRACE, "{");     fixed(RIGHT_BRACE, "}");
+        fixed(LEFT_BRACKET, "[");   fixed(RIGHT_BRACKET, "]");
+        fixed(COMMA, ",");          fixed(DOT, ".");
+        fixed(MINUS, "-");          fixed(PLUS, "+");
+        fixed(SEMICOLON, ";");      fixed(SLASH, "/");
+        fixed(STAR, "*");           fixed(QUESTION_MARK, "?");
+        fixed(COLON, ":");          fixed(AMPERSAND, "&");
+        fixed(PIPE, "|");           fixed(CARET, "^");
+        fixed(BANG, "!");           fixed(BANG_EQUAL, "!=");
+        fixed(EQUAL, "=");          fixed(EQUAL_EQUAL, "==");
+        fixed(GREATER, ">");        fixed(GREATER_EQUAL, ">=");
+        fixed(LESS, "<");           fixed(LESS_EQUAL, "<=");
+        fixed(PLUS_PLUS, "++");     fixed(MINUS_MINUS, "--");
+        fixed(LESS_LESS, "<<");     fixed(GREATER_GREATER, ">>");
+
+        fixed(AND, "and");          fixed(CLASS, "class");
+        fixed(ELSE, "else");        fixed(FALSE, "false");
+        fixed(FOR, "for");          fixed(FUN, "fun");
+        fixed(IF, "if");            fixed(NIL, "nil");
+        fixed(OR, "or");            fixed(PRINT, "print");
+        fixed(RETURN, "return");    fixed(SUPER, "super");
+        fixed(THIS, "this");        fixed(TRUE, "true");
+        fixed(VAR, "var");          fixed(WHILE, "while");
+        fixed(BREAK, "break");      fixed(IMPORT, "import");
+        fixed(EOF, "");
+    }
+
+    private static void fixed(TokenType type, String lexeme) {
+        fixedLexemes[type.ordinal()] = lexeme;
+    }
+
+    // When scanning from a Reader, source is a window onto the input holding
+    // at least the current lexeme; it is refilled (and grown if a lexeme does
+    // not fit) as the scanner reaches its end.
+    private final LoxContext context;
+    private final Reader reader;
+    private char[] source;
+    private int limit;
     private final List<Token> tokens = new ArrayList<>();
+    // Identifiers and literals repeat a lot in large (generated) sources, so
+    // every occurrence shares one String/Long/Double instead of holding its own copy.
+    // Strings are looked up by their character range and numbers by their
+    // bits, and only materialised the first time they are seen.
+    // Both pools are caches: once full they start over, so memory stays
+    // bounded for sources that are streamed rather than held in memory.
+    private static final int MAX_POOLED = 1 << 16;
+    private String[] strings = new String[256];
+    private int stringCount = 0;
+    // A Long is kept under its value, a Double under its raw bits
+    private long[] numberBits = new long[256];
+    private Number[] numbers = new Number[256];
+    private int numberCount = 0;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    Scanner(String source) {
+    Scanner(LoxContext context, String source) {
+        this(context, source.toCharArray());
+    }
+
+    Scanner(LoxContext context, char[] source) {
+        this.context = context;
+        this.reader = null;
         this.source = source;
+        this.limit = source.length;
+    }
+
+    Scanner(LoxContext context, Reader reader) {
+        this.context = context;
+        this.reader = reader;
+        this.source = new char[8192];
+        this.limit = 0;
     }
 
     List<Token> scanTokens() {
@@ -48,10 +96,24 @@ class Scanner {
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(new Token(EOF, fixedLexemes[EOF.ordinal()], null, line));
         return tokens;
     }
 
+    // Scans just far enough to produce one more token, returning EOF once the
+    // input is exhausted. Used to scan a source while it is being read.
+    Token nextToken() {
+        while (tokens.isEmpty() && !isAtEnd()) {
+            start = current;
+            scanToken();
+        }
+
+        if (tokens.isEmpty()) {
+            return new Token(EOF, fixedLexemes[EOF.ordinal()], null, line);
+        }
+        return tokens.remove(0);
+    }
+
     private void scanToken() {
         // TODO: /* */ multiline comments
         char c = advance();
@@ -68,14 +130,17 @@ class Scanner {
             case '.': addToken(DOT); break;
             case '?': addToken(QUESTION_MARK); break;
             case ':': addToken(COLON); break;
+            case '&': addToken(AMPERSAND); break;
+            case '|': addToken(PIPE); break;
+            case '^': addToken(CARET); break;
 
             case '-': addToken(match('-') ? MINUS_MINUS : MINUS); break;
             case '+': addToken(match('+') ? PLUS_PLUS : PLUS); break;
 
             case '!': addToken(match('=') ? BANG_EQUAL : BANG); break;
             case '=': addToken(match('=') ? EQUAL_EQUAL: EQUAL); break;
-            case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
-            case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
+            case '<': addToken(match('=') ? LESS_EQUAL : match('<') ? LESS_LESS : LESS); break;
+            case '>': addToken(match('=') ? GREATER_EQUAL : match('>') ? GREATER_GREATER : GREATER); break;
 
             case '/':
                 if (match('/')) {
@@ -100,7 +165,7 @@ class Scanner {
                         advance();
                         advance();
                     } else {
-                        Lox.error(startLine, "Block comment not closed");
+                        context.error(startLine, "Block comment not closed");
                     }
                 } else {
                     addToken(SLASH);
@@ -125,7 +190,7 @@ class Scanner {
                 } else if (isAlpha(c)){
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    context.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -135,21 +200,75 @@ class Scanner {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        // See if the identifier is a reserved word.
-        String text = source.substring(start, current);
 
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        TokenType type = identifierType();
+        if (type == IDENTIFIER) {
+            tokens.add(new Token(IDENTIFIER, intern(start, current), null, line));
+        } else {
+            addToken(type);
+        }
+    }
+
+    // See if the identifier is a reserved word, without building a String for it
+    private TokenType identifierType() {
+        switch (source[start]) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'b': return checkKeyword(1, "reak", BREAK);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'f': return checkKeyword(2, "", IF);
+                        case 'm': return checkKeyword(2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private void number() {
+        boolean integral = true;
         while (isDigit(peek())) {
             advance();
         }
 
         // Look for fractional part
         if (peek() == '.' && isDigit(peekNext())) {
+            integral = false;
             // Consume the "."
             advance();
 
@@ -157,7 +276,29 @@ class Scanner {
                 advance();
             }
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+
+        // Integers without a decimal point, unless they don't fit in a long
+        boolean isLong = integral;
+        long bits = 0;
+        if (integral && current - start <= 18) {
+            // Can't overflow, so skip the String round trip
+            for (int i = start; i < current; i++) {
+                bits = bits * 10 + (source[i] - '0');
+            }
+        } else {
+            String text = new String(source, start, current - start);
+            if (integral) {
+                try {
+                    bits = Long.parseLong(text);
+                } catch (NumberFormatException e) {
+                    // Too big, stays a double
+                    isLong = false;
+                }
+            }
+            if (!isLong) bits = Double.doubleToRawLongBits(Double.parseDouble(text));
+        }
+        Number literal = pool(isLong, bits);
+        tokens.add(new Token(NUMBER, intern(start, current), literal, line));
     }
 
     private void string() {
@@ -169,7 +310,7 @@ class Scanner {
 
         // Unterminated string
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            context.error(line, "Unterminated string.");
             return;
         }
 
@@ -177,26 +318,26 @@ class Scanner {
         advance();
 
         // Trim the surrounding quotes
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        String value = intern(start + 1, current - 1);
+        tokens.add(new Token(STRING, intern(start, current), value, line));
     }
 
     private boolean match(char expexted) {
-        if (isAtEnd()) return false;
-        if (source.charAt(current) != expexted) return false;
+        if (!available(0)) return false;
+        if (source[current] != expexted) return false;
 
         current++;
         return true;
     }
 
     private char peek() {
-        if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        if (!available(0)) return '\0';
+        return source[current];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!available(1)) return '\0';
+        return source[current + 1];
     }
 
     private boolean isAlpha(char c) {
@@ -214,20 +355,145 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(0);
+    }
+
+    // Whether the character 'ahead' positions past current exists, reading
+    // more input if needed.
+    private boolean available(int ahead) {
+        while (current + ahead >= limit) {
+            if (reader == null || !fill()) return false;
+        }
+        return true;
+    }
+
+    private boolean fill() {
+        // Drop everything before the current lexeme, grow if it fills the buffer
+        if (start > 0) {
+            System.arraycopy(source, start, source, 0, limit - start);
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == source.length) {
+            char[] grown = new char[source.length * 2];
+            System.arraycopy(source, 0, grown, 0, limit);
+            source = grown;
+        }
+
+        try {
+            int read = reader.read(source, limit, source.length - limit);
+            if (read <= 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private char advance() {
         current++;
-        return source.charAt(current - 1);
+        return source[current - 1];
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    private String intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + source[i];
+        }
+
+        // Open addressing with linear probing, sized to stay at most half full
+        int mask = strings.length - 1;
+        int slot = hash & mask;
+        while (strings[slot] != null) {
+            String candidate = strings[slot];
+            if (candidate.hashCode() == hash && sameChars(candidate, from, to)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String text = new String(source, from, to - from);
+        strings[slot] = text;
+        if (++stringCount * 2 > strings.length) growStrings();
+        return text;
+    }
+
+    private Number pool(boolean isLong, long bits) {
+        // Open addressing like intern(), the number is boxed only when it is new
+        int mask = numbers.length - 1;
+        int slot = Long.hashCode(bits) & mask;
+        while (numbers[slot] != null) {
+            if (numberBits[slot] == bits && (numbers[slot] instanceof Long) == isLong) {
+                return numbers[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        Number value;
+        if (isLong) {
+            value = bits;
+        } else {
+            value = Double.longBitsToDouble(bits);
+        }
+        numberBits[slot] = bits;
+        numbers[slot] = value;
+        if (++numberCount * 2 > numbers.length) growNumbers();
+        return value;
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private boolean sameChars(String text, int from, int to) {
+        if (text.length() != to - from) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) != source[from + i]) return false;
+        }
+        return true;
+    }
+
+    private void growStrings() {
+        if (stringCount >= MAX_POOLED) {
+            Arrays.fill(strings, null);
+            stringCount = 0;
+            return;
+        }
+
+        String[] old = strings;
+        strings = new String[old.length * 2];
+        int mask = strings.length - 1;
+        for (String text : old) {
+            if (text == null) continue;
+            int slot = text.hashCode() & mask;
+            while (strings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            strings[slot] = text;
+        }
+    }
+
+    private void growNumbers() {
+        if (numberCount >= MAX_POOLED) {
+            Arrays.fill(numbers, null);
+            numberCount = 0;
+            return;
+        }
+
+        long[] oldBits = numberBits;
+        Number[] old = numbers;
+        numberBits = new long[old.length * 2];
+        numbers = new Number[old.length * 2];
+        int mask = numbers.length - 1;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == null) continue;
+            int slot = Long.hashCode(oldBits[i]) & mask;
+            while (numbers[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            numberBits[slot] = oldBits[i];
+            numbers[slot] = old[i];
+        }
+    }
+
+    private void addToken(TokenType type) {
+        tokens.add(new Token(type, fixedLexemes[type.ordinal()], null, line));
     }
 }
@@ -0,0 +1,258 @@
+package com.enielsen.lox;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Copy on write for interpreters forked from one another, see Interpreter.fork.
+//
+// Forking seals everything reachable from the globals: sealed environments,
+// instances, classes and arrays are never changed again and are shared by all
+// forks. Each forked interpreter has a SharedHeap that copies a sealed object
+// the first time the interpreter gets hold of it, and hands out that copy from
+// then on. Sealed objects only ever refer to sealed or frozen objects, so an
+// interpreter that adopts every value it reads never writes to shared state.
+//
+// Frozen values, see DeepFreeze, are not sealed: they can't be changed, so
+// every fork uses them as they are.
+class SharedHeap {
+    // The sealed heap of the interpreter this one was forked from, its copies
+    // are what sealed objects stood for there
+    private final SharedHeap base;
+    private final Environment globals;
+    private final Map<Object, Object> copies = new IdentityHashMap<>();
+
+    SharedHeap(SharedHeap base, Environment globals) {
+        this.base = base;
+        this.globals = globals;
+    }
+
+    SharedHeap base() {
+        return base;
+    }
+
+    boolean isEmpty() {
+        return copies.isEmpty();
+    }
+
+    Object adopt(Object value) {
+        if (!isSealed(value)) return value;
+
+        Object copy = copies.get(value);
+        if (copy != null) return copy;
+
+        Object translated = base == null ? value : base.translate(value);
+        copy = isSealed(translated) ? copyOf(value, translated) : translated;
+        copies.put(value, copy);
+        return copy;
+    }
+
+    private Object translate(Object value) {
+        Object copy = copies.get(value);
+        if (copy != null) return copy;
+        return base == null ? value : base.translate(value);
+    }
+
+    private Object copyOf(Object original, Object value) {
+        if (value instanceof Environment) {
+            Environment environment = (Environment) value;
+            // Globals are always read through the interpreter's own globals
+            if (environment.enclosing == null) return globals;
+
+            Environment copy = new Environment((Environment) adopt(environment.enclosing));
+            copy.values.putAll(environment.values);
+            return copy;
+        }
+        if (value instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) value;
+            return new LoxFunction(function.name, function.function,
+                    (Environment) adopt(function.closure), function.isInitializer, function.home);
+        }
+        if (value instanceof LoxClass) {
+            LoxClass klass = (LoxClass) value;
+            Map<String, LoxFunction> methods = klass.methods;
+            for (LoxFunction method : klass.methods.values()) {
+                if (isSealed(method)) {
+                    methods = new HashMap<>();
+                    for (Map.Entry<String, LoxFunction> entry : klass.methods.entrySet()) {
+                        methods.put(entry.getKey(), (LoxFunction) adopt(entry.getValue()));
+                    }
+                    break;
+                }
+            }
+            LoxClass copy = new LoxClass((LoxClass) adopt(klass.klass),
+                    (LoxClass) adopt(klass.superClass), klass.name, methods);
+            copy.fields.putAll(klass.fields);
+            return copy;
+        }
+        if (value instanceof LoxInstance) {
+            LoxInstance instance = (LoxInstance) value;
+            LoxInstance copy = new LoxInstance((LoxClass) adopt(instance.klass));
+            copy.fields.putAll(instance.fields);
+            return copy;
+        }
+        if (value instanceof LoxMap) {
+            // Keys are looked up by identity, so they have to be the copies
+            // this interpreter reads. Known before the keys are adopted, a
+            // map may be one of its own keys.
+            LoxMap copy = new LoxMap();
+            copies.put(original, copy);
+            ((LoxMap) value).forEach((key, entry) -> copy.put(adopt(key), entry));
+            return copy;
+        }
+        if (value instanceof LoxSet) {
+            LoxSet copy = new LoxSet();
+            copies.put(original, copy);
+            ((LoxSet) value).forEach(element -> copy.add(adopt(element)));
+            return copy;
+        }
+        if (value instanceof LoxSortedMap) {
+            // Rebuilt in the same order, the comparator is not called
+            LoxSortedMap map = (LoxSortedMap) value;
+            LoxSortedMap copy = new LoxSortedMap(new LoxComparator(null));
+            copies.put(original, copy);
+            List<Map.Entry<Object, Object>> entries = new ArrayList<>();
+            map.forEach((key, entry) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(adopt(key), entry)));
+            copy.load((LoxCallable) adopt(map.comparator()), entries);
+            return copy;
+        }
+        if (value instanceof LoxStringBuilder) {
+            return ((LoxStringBuilder) value).copy();
+        }
+        if (value instanceof LoxPriorityQueue) {
+            LoxPriorityQueue queue = (LoxPriorityQueue) value;
+            return queue.copy((LoxCallable) adopt(queue.comparator()));
+        }
+        if (value instanceof LoxPersistentMap) {
+            LoxPersistentMap copy = new LoxPersistentMap();
+            copies.put(original, copy);
+            List<Object> entries = new ArrayList<>();
+            ((LoxPersistentMap) value).forEach((key, entry) -> {
+                entries.add(adopt(key));
+                entries.add(entry);
+            });
+            copy.load(entries.toArray());
+            return copy;
+        }
+        return ((LoxArray) value).copy();
+    }
+
+    // Functions are immutable, they only need a copy if their closure does.
+    // Closures that are a globals environment never do, globals are not read
+    // through the closure.
+    private static boolean isSealed(Object value) {
+        if (value instanceof LoxInstance) return ((LoxInstance) value).sealed;
+        if (value instanceof LoxArray) return ((LoxArray) value).sealed;
+        if (value instanceof LoxMap) return ((LoxMap) value).sealed;
+        if (value instanceof LoxSet) return ((LoxSet) value).sealed;
+        if (value instanceof LoxSortedMap) return ((LoxSortedMap) value).sealed;
+        if (value instanceof LoxPriorityQueue) return ((LoxPriorityQueue) value).sealed;
+        if (value instanceof LoxPersistentMap) return ((LoxPersistentMap) value).sealed;
+        if (value instanceof LoxStringBuilder) return ((LoxStringBuilder) value).sealed;
+        if (value instanceof LoxFunction) {
+            Environment closure = ((LoxFunction) value).closure;
+            return closure.sealed && closure.enclosing != null;
+        }
+        if (value instanceof Environment) return ((Environment) value).sealed;
+        return false;
+    }
+
+    // Seals everything reachable from the roots that is not sealed yet
+    static void seal(Environment globals, Collection<Object> roots) {
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(globals);
+        roots.forEach(root -> push(pending, root));
+
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                if (environment.sealed || environment.frozen) continue;
+                environment.sealed = true;
+                push(pending, environment.enclosing);
+                environment.values.values().forEach(value -> push(pending, value));
+            } else if (object instanceof LoxFunction) {
+                push(pending, ((LoxFunction) object).closure);
+            } else if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) object;
+                if (instance.sealed || instance.frozen) continue;
+                instance.sealed = true;
+                push(pending, instance.klass);
+                instance.fields.values().forEach(value -> push(pending, value));
+                if (instance instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) instance;
+                    push(pending, klass.superClass);
+                    klass.methods.values().forEach(method -> push(pending, method));
+                }
+            } else if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray) object;
+                if (array.sealed || array.frozen) continue;
+                array.sealed = true;
+                array.forEachReference(element -> push(pending, element));
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                if (map.sealed || map.frozen) continue;
+                map.sealed = true;
+                map.forEach((key, value) -> {
+                    push(pending, key);
+                    push(pending, value);
+                });
+            } else if (object instanceof LoxSet) {
+                LoxSet set = (LoxSet) object;
+                if (set.sealed || set.frozen) continue;
+                set.sealed = true;
+                set.forEach(element -> push(pending, element));
+            } else if (object instanceof LoxSortedMap) {
+                LoxSortedMap map = (LoxSortedMap) object;
+                if (map.sealed || map.frozen) continue;
+                map.sealed = true;
+                push(pending, map.comparator());
+                map.forEach((key, value) -> {
+                    push(pending, key);
+                    push(pending, value);
+                });
+            } else if (object instanceof LoxPriorityQueue) {
+                LoxPriorityQueue queue = (LoxPriorityQueue) object;
+                if (queue.sealed || queue.frozen) continue;
+                queue.sealed = true;
+                push(pending, queue.comparator());
+                queue.forEach(element -> push(pending, element));
+            } else if (object instanceof LoxStringBuilder) {
+                LoxStringBuilder builder = (LoxStringBuilder) object;
+                if (builder.frozen) continue;
+                builder.sealed = true;
+            } else if (object instanceof LoxVector) {
+                LoxVector vector = (LoxVector) object;
+                if (vector.sealed) continue;
+                vector.sealed = true;
+                vector.forEach(element -> push(pending, element));
+            } else if (object instanceof LoxPersistentMap) {
+                LoxPersistentMap map = (LoxPersistentMap) object;
+                if (map.sealed) continue;
+                map.forEach((key, value) -> {
+                    // Only keys that are objects have copies
+                    if (!(key == null || key instanceof String || LoxNumber.isNumber(key) ||
+                            key instanceof Boolean)) {
+                        map.sealed = true;
+                    }
+                    push(pending, key);
+                    push(pending, value);
+                });
+            }
+        }
+    }
+
+    private static void push(Deque<Object> pending, Object value) {
+        if (value != null) pending.push(value);
+    }
+
+    Collection<Object> copies() {
+        return copies.values();
+    }
+}
@@ -0,0 +1,559 @@
+package com.enielsen.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Saves the global state left behind by a prelude script (its classes,
+// functions, instances and collections, with their closures) so that it can be
+// restored into a fresh Interpreter instead of running the prelude again.
+//
+// Every object gets an id. The snapshot first lists the objects in an order in
+// which each one can be constructed from objects before it, then fills in the
+// mutable parts (variables, fields, elements), which is where cycles go.
+class Snapshot {
+    private static final int MAGIC = 0x4c4f5853; // "LOXS"
+    private static final int VERSION = 9;
+
+    private static final int ENVIRONMENT = 0;
+    private static final int AST = 1;
+    private static final int FUNCTION = 2;
+    private static final int CLASS = 3;
+    private static final int INSTANCE = 4;
+    private static final int ARRAY = 5;
+    private static final int MAP = 6;
+    private static final int SET = 7;
+    private static final int SORTED_MAP = 8;
+    private static final int PRIORITY_QUEUE = 9;
+    private static final int VECTOR = 10;
+    private static final int PERSISTENT_MAP = 11;
+    private static final int STRING_BUILDER = 12;
+
+    private static final int VALUE = 0;
+    private static final int REFERENCE = 1;
+    private static final int NATIVE = 2;
+
+    // The globals environment is always object 0
+    private static final int GLOBALS = 0;
+
+    private Snapshot() {}
+
+    static void write(Environment globals, OutputStream output) throws IOException {
+        new Writer(globals).write(new AstWriter(output));
+    }
+
+    static void restore(InputStream input, Environment globals) throws IOException {
+        new Reader(globals).read(new AstReader(input));
+    }
+
+    private static class Writer {
+        private final Environment globals;
+        private final Map<LoxCallable, String> nativeNames = new IdentityHashMap<>();
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final List<List<Object>> byKind = new ArrayList<>();
+        private final Deque<Object> pending = new ArrayDeque<>();
+
+        Writer(Environment globals) {
+            this.globals = globals;
+            // Natives are not saved, they are looked up by name when restoring
+            NativeFunctions.natives().forEach((name, callable) -> nativeNames.put(callable, name));
+            for (int kind = ENVIRONMENT; kind <= STRING_BUILDER; kind++) {
+                byKind.add(new ArrayList<>());
+            }
+        }
+
+        void write(AstWriter out) throws IOException {
+            discover();
+            List<Object> order = order();
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(order.size());
+            for (Object object : order) {
+                writeCreation(out, object);
+            }
+            for (Object object : order) {
+                writeContents(out, object);
+            }
+            writeContents(out, globals);
+
+            // Frozen once they are filled in
+            List<Object> frozen = new ArrayList<>();
+            for (Object object : order) {
+                if (DeepFreeze.isFrozen(object)) frozen.add(object);
+            }
+            out.writeInt(frozen.size());
+            for (Object object : frozen) {
+                out.writeInt(id(object));
+            }
+            out.flush();
+        }
+
+        private void discover() {
+            ids.put(globals, GLOBALS);
+            globals.values.forEach((name, value) -> {
+                if (!isNative(name, value)) visit(value);
+            });
+
+            while (!pending.isEmpty()) {
+                Object object = pending.pop();
+                if (object instanceof Environment) {
+                    Environment environment = (Environment) object;
+                    visit(environment.enclosing);
+                    environment.values.values().forEach(this::visit);
+                } else if (object instanceof LoxFunction) {
+                    LoxFunction function = (LoxFunction) object;
+                    visit(function.function);
+                    visit(function.closure);
+                } else if (object instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) object;
+                    visit(klass.klass);
+                    visit(klass.superClass);
+                    klass.methods.values().forEach(this::visit);
+                    klass.fields.values().forEach(this::visit);
+                } else if (object instanceof LoxInstance) {
+                    LoxInstance instance = (LoxInstance) object;
+                    visit(instance.klass);
+                    instance.fields.values().forEach(this::visit);
+                } else if (object instanceof LoxArray) {
+                    ((LoxArray) object).forEachReference(this::visit);
+                } else if (object instanceof LoxMap) {
+                    ((LoxMap) object).forEach((key, value) -> {
+                        visit(key);
+                        visit(value);
+                    });
+                } else if (object instanceof LoxSet) {
+                    ((LoxSet) object).forEach(this::visit);
+                } else if (object instanceof LoxSortedMap) {
+                    LoxSortedMap map = (LoxSortedMap) object;
+                    visit(map.comparator());
+                    map.forEach((key, value) -> {
+                        visit(key);
+                        visit(value);
+                    });
+                } else if (object instanceof LoxPriorityQueue) {
+                    LoxPriorityQueue queue = (LoxPriorityQueue) object;
+                    visit(queue.comparator());
+                    queue.forEach(this::visit);
+                } else if (object instanceof LoxVector) {
+                    ((LoxVector) object).forEach(this::visit);
+                } else if (object instanceof LoxPersistentMap) {
+                    ((LoxPersistentMap) object).forEach((key, value) -> {
+                        visit(key);
+                        visit(value);
+                    });
+                }
+            }
+        }
+
+        private void visit(Object value) {
+            if (value == null || ids.containsKey(value)) return;
+
+            int kind = kindOf(value);
+            if (kind < 0) return;
+
+            ids.put(value, -1);
+            byKind.get(kind).add(value);
+            pending.push(value);
+        }
+
+        private boolean isNative(String name, Object value) {
+            return value instanceof LoxCallable && name.equals(nativeNames.get(value));
+        }
+
+        private int kindOf(Object value) {
+            if (value instanceof Environment) return ENVIRONMENT;
+            if (value instanceof Expr.Function) return AST;
+            if (value instanceof LoxFunction) return FUNCTION;
+            if (value instanceof LoxClass) return CLASS;
+            if (value instanceof LoxInstance) return INSTANCE;
+            if (value instanceof LoxArray) return ARRAY;
+            if (value instanceof LoxMap) return MAP;
+            if (value instanceof LoxSet) return SET;
+            if (value instanceof LoxSortedMap) return SORTED_MAP;
+            if (value instanceof LoxPriorityQueue) return PRIORITY_QUEUE;
+            if (value instanceof LoxVector) return VECTOR;
+            if (value instanceof LoxPersistentMap) return PERSISTENT_MAP;
+            if (value instanceof LoxStringBuilder) return STRING_BUILDER;
+            return -1;
+        }
+
+        // Enclosing environments before the ones they enclose, classes after
+        // their metaclass and superclass, everything else by kind.
+        private List<Object> order() {
+            List<Object> order = new ArrayList<>();
+
+            List<Object> environments = byKind.get(ENVIRONMENT);
+            environments.sort((a, b) -> depth((Environment) a) - depth((Environment) b));
+            order.addAll(environments);
+            order.addAll(byKind.get(AST));
+            order.addAll(byKind.get(FUNCTION));
+
+            Map<Object, Boolean> placed = new IdentityHashMap<>();
+            for (Object klass : byKind.get(CLASS)) {
+                placeClass((LoxClass) klass, placed, order);
+            }
+
+            order.addAll(byKind.get(INSTANCE));
+            order.addAll(byKind.get(ARRAY));
+            order.addAll(byKind.get(MAP));
+            order.addAll(byKind.get(SET));
+            order.addAll(byKind.get(SORTED_MAP));
+            order.addAll(byKind.get(PRIORITY_QUEUE));
+            order.addAll(byKind.get(VECTOR));
+            order.addAll(byKind.get(PERSISTENT_MAP));
+            order.addAll(byKind.get(STRING_BUILDER));
+
+            for (int i = 0; i < order.size(); i++) {
+                ids.put(order.get(i), i + 1);
+            }
+            return order;
+        }
+
+        private void placeClass(LoxClass klass, Map<Object, Boolean> placed, List<Object> order) {
+            if (klass == null || placed.containsKey(klass)) return;
+            placed.put(klass, true);
+            placeClass(klass.klass, placed, order);
+            placeClass(klass.superClass, placed, order);
+            order.add(klass);
+        }
+
+        private int depth(Environment environment) {
+            int depth = 0;
+            while (environment.enclosing != null) {
+                environment = environment.enclosing;
+                depth++;
+            }
+            return depth;
+        }
+
+        private void writeCreation(AstWriter out, Object object) throws IOException {
+            int kind = kindOf(object);
+            out.writeTag(kind);
+            switch (kind) {
+                case ENVIRONMENT:
+                    out.writeInt(id(((Environment) object).enclosing));
+                    break;
+                case AST:
+                    out.writeExpr((Expr.Function) object);
+                    break;
+                case FUNCTION: {
+                    LoxFunction function = (LoxFunction) object;
+                    if (function.home != null) {
+                        throw new IOException("Cannot save '" + function + "', it belongs to a module.");
+                    }
+                    out.writeLiteral(function.name);
+                    out.writeInt(id(function.function));
+                    out.writeInt(id(function.closure));
+                    out.writeBoolean(function.isInitializer);
+                    break;
+                }
+                case CLASS: {
+                    LoxClass klass = (LoxClass) object;
+                    out.writeInt(id(klass.klass));
+                    out.writeInt(id(klass.superClass));
+                    out.writeLiteral(klass.name);
+                    out.writeInt(klass.methods.size());
+                    for (Map.Entry<String, LoxFunction> method : klass.methods.entrySet()) {
+                        out.writeLiteral(method.getKey());
+                        out.writeInt(id(method.getValue()));
+                    }
+                    break;
+                }
+                case INSTANCE:
+                    out.writeInt(id(((LoxInstance) object).klass));
+                    break;
+                case ARRAY:
+                case MAP:
+                case SET:
+                case SORTED_MAP:
+                case PRIORITY_QUEUE:
+                case VECTOR:
+                case PERSISTENT_MAP:
+                    break;
+                case STRING_BUILDER:
+                    out.writeLiteral(object.toString());
+                    break;
+            }
+        }
+
+        private void writeContents(AstWriter out, Object object) throws IOException {
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                Map<String, Object> values = new HashMap<>(environment.values);
+                if (environment == globals) {
+                    values.entrySet().removeIf(entry -> isNative(entry.getKey(), entry.getValue()));
+                }
+                writeEntries(out, values);
+            } else if (object instanceof LoxInstance) {
+                writeEntries(out, ((LoxInstance) object).fields);
+            } else if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray) object;
+                out.writeInt(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    writeValue(out, array.element(i));
+                }
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                out.writeInt(map.length());
+                List<Object> entries = new ArrayList<>();
+                map.forEach((key, value) -> {
+                    entries.add(key);
+                    entries.add(value);
+                });
+                for (Object entry : entries) {
+                    writeValue(out, entry);
+                }
+            } else if (object instanceof LoxSet) {
+                LoxSet set = (LoxSet) object;
+                out.writeInt(set.length());
+                List<Object> elements = new ArrayList<>();
+                set.forEach(elements::add);
+                for (Object element : elements) {
+                    writeValue(out, element);
+                }
+            } else if (object instanceof LoxSortedMap) {
+                // In order, restoring does not call the comparator
+                LoxSortedMap map = (LoxSortedMap) object;
+                writeValue(out, map.comparator());
+                out.writeInt(map.length());
+                List<Object> entries = new ArrayList<>();
+                map.forEach((key, value) -> {
+                    entries.add(key);
+                    entries.add(value);
+                });
+                for (Object entry : entries) {
+                    writeValue(out, entry);
+                }
+            } else if (object instanceof LoxPriorityQueue) {
+                // In heap order
+                LoxPriorityQueue queue = (LoxPriorityQueue) object;
+                writeValue(out, queue.comparator());
+                out.writeInt(queue.length());
+                List<Object> elements = new ArrayList<>();
+                queue.forEach(elements::add);
+                for (Object element : elements) {
+                    writeValue(out, element);
+                }
+            } else if (object instanceof LoxVector) {
+                LoxVector vector = (LoxVector) object;
+                out.writeInt(vector.length());
+                for (int i = 0; i < vector.length(); i++) {
+                    writeValue(out, vector.element(i));
+                }
+            } else if (object instanceof LoxPersistentMap) {
+                LoxPersistentMap map = (LoxPersistentMap) object;
+                out.writeInt(map.length());
+                List<Object> entries = new ArrayList<>();
+                map.forEach((key, value) -> {
+                    entries.add(key);
+                    entries.add(value);
+                });
+                for (Object entry : entries) {
+                    writeValue(out, entry);
+                }
+            }
+        }
+
+        private void writeEntries(AstWriter out, Map<String, Object> entries) throws IOException {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                out.writeLiteral(entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+
+        private void writeValue(AstWriter out, Object value) throws IOException {
+            if (ids.containsKey(value)) {
+                out.writeTag(REFERENCE);
+                out.writeInt(ids.get(value));
+            } else if (value instanceof LoxCallable && nativeNames.containsKey(value)) {
+                out.writeTag(NATIVE);
+                out.writeLiteral(nativeNames.get(value));
+            } else {
+                if (value instanceof LoxCallable) {
+                    throw new IOException("Cannot save native value '" + value + "'.");
+                }
+                out.writeTag(VALUE);
+                out.writeLiteral(value);
+            }
+        }
+
+        private int id(Object object) {
+            if (object == null) return -1;
+            return ids.get(object);
+        }
+    }
+
+    private static class Reader {
+        private final Environment globals;
+        private final Map<String, LoxCallable> natives = NativeFunctions.natives();
+        private Object[] objects;
+
+        Reader(Environment globals) {
+            this.globals = globals;
+        }
+
+        void read(AstReader in) throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a Lox snapshot of this version.");
+            }
+
+            objects = new Object[in.readInt() + 1];
+            objects[GLOBALS] = globals;
+            for (int id = 1; id < objects.length; id++) {
+                objects[id] = readCreation(in);
+            }
+            for (int id = 1; id < objects.length; id++) {
+                readContents(in, objects[id]);
+            }
+            readContents(in, globals);
+
+            int frozen = in.readInt();
+            for (int i = 0; i < frozen; i++) {
+                DeepFreeze.markFrozen(object(in.readInt()));
+            }
+        }
+
+        private Object readCreation(AstReader in) throws IOException {
+            switch (in.readTag()) {
+                case ENVIRONMENT:
+                    return new Environment((Environment) object(in.readInt()));
+                case AST:
+                    return in.readExpr();
+                case FUNCTION: {
+                    String name = (String) in.readLiteral();
+                    Expr.Function function = (Expr.Function) object(in.readInt());
+                    Environment closure = (Environment) object(in.readInt());
+                    return new LoxFunction(name, function, closure, in.readBoolean());
+                }
+                case CLASS: {
+                    LoxClass metaclass = (LoxClass) object(in.readInt());
+                    LoxClass superClass = (LoxClass) object(in.readInt());
+                    String name = (String) in.readLiteral();
+                    Map<String, LoxFunction> methods = new HashMap<>();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String methodName = (String) in.readLiteral();
+                        methods.put(methodName, (LoxFunction) object(in.readInt()));
+                    }
+                    return new LoxClass(metaclass, superClass, name, methods);
+                }
+                case INSTANCE:
+                    return new LoxInstance((LoxClass) object(in.readInt()));
+                case ARRAY:
+                    return new LoxArray();
+                case MAP:
+                    return new LoxMap();
+                case SET:
+                    return new LoxSet();
+                case SORTED_MAP:
+                    return new LoxSortedMap(new LoxComparator(null));
+                case PRIORITY_QUEUE:
+                    return new LoxPriorityQueue(new LoxComparator(null));
+                case VECTOR:
+                    return new LoxVector();
+                case PERSISTENT_MAP:
+                    return new LoxPersistentMap();
+                case STRING_BUILDER: {
+                    LoxStringBuilder builder = new LoxStringBuilder();
+                    builder.text.append((String) in.readLiteral());
+                    return builder;
+                }
+            }
+            throw new IOException("Unknown snapshot object kind.");
+        }
+
+        private void readContents(AstReader in, Object object) throws IOException {
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    environment.define((String) in.readLiteral(), readValue(in));
+                }
+            } else if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    instance.fields.put((String) in.readLiteral(), readValue(in));
+                }
+            } else if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    array.add(readValue(in));
+                }
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+            } else if (object instanceof LoxSet) {
+                LoxSet set = (LoxSet) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    set.add(readValue(in));
+                }
+            } else if (object instanceof LoxSortedMap) {
+                LoxCallable comparator = (LoxCallable) readValue(in);
+                int count = in.readInt();
+                List<Map.Entry<Object, Object>> entries = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(readValue(in), readValue(in)));
+                }
+                ((LoxSortedMap) object).load(comparator, entries);
+            } else if (object instanceof LoxPriorityQueue) {
+                LoxCallable comparator = (LoxCallable) readValue(in);
+                int count = in.readInt();
+                Object[] heap = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    heap[i] = readValue(in);
+                }
+                ((LoxPriorityQueue) object).load(comparator, heap, count);
+            } else if (object instanceof LoxVector) {
+                int count = in.readInt();
+                List<Object> elements = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    elements.add(readValue(in));
+                }
+                ((LoxVector) object).load(elements);
+            } else if (object instanceof LoxPersistentMap) {
+                Object[] entries = new Object[2 * in.readInt()];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = readValue(in);
+                }
+                ((LoxPersistentMap) object).load(entries);
+            }
+        }
+
+        private Object readValue(AstReader in) throws IOException {
+            switch (in.readTag()) {
+                case VALUE:
+                    return in.readLiteral();
+                case REFERENCE:
+                    return object(in.readInt());
+                case NATIVE: {
+                    String name = (String) in.readLiteral();
+                    LoxCallable callable = natives.get(name);
+                    if (callable == null) throw new IOException("Unknown native '" + name + "'.");
+                    return callable;
+                }
+            }
+            throw new IOException("Unknown snapshot value.");
+        }
+
+        private Object object(int id) {
+            return id < 0 ? null : objects[id];
+        }
+    }
+}
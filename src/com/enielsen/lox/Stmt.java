@@ -1,5 +1,6 @@
 package com.enielsen.lox;
 
+import java.io.IOException;
 import java.util.List;
 
 abstract class Stmt {
@@ -14,9 +15,10 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
     R visitBreakStmt(Break stmt);
+    R visitImportStmt(Import stmt);
   }
 
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
@@ -25,6 +27,15 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitBlockStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(0);
+      out.writeStmts(statements);
+    }
+
     @Override
     public String toString() {
       return "BlockStmt";
@@ -33,7 +44,7 @@ abstract class Stmt {
     final List<Stmt> statements;
   }
 
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
     Class(Token name, Expr superClass, List<Stmt.Function> methods, List<Stmt.Function> classMethods) {
       this.name = name;
       this.superClass = superClass;
@@ -45,6 +56,18 @@ abstract class Stmt {
       return visitor.visitClassStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitClassStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(1);
+      out.writeToken(name);
+      out.writeExpr(superClass);
+      out.writeStmts(methods);
+      out.writeStmts(classMethods);
+    }
+
     @Override
     public String toString() {
       return "ClassStmt";
@@ -56,7 +79,7 @@ abstract class Stmt {
     final List<Stmt.Function> classMethods;
   }
 
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
     }
@@ -65,6 +88,15 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitExpressionStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(2);
+      out.writeExpr(expression);
+    }
+
     @Override
     public String toString() {
       return "ExpressionStmt";
@@ -73,7 +105,7 @@ abstract class Stmt {
     final Expr expression;
   }
 
-  static class Function extends Stmt {
+  static final class Function extends Stmt {
     Function(Token name, Expr.Function function) {
       this.name = name;
       this.function = function;
@@ -83,6 +115,16 @@ abstract class Stmt {
       return visitor.visitFunctionStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitFunctionStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(3);
+      out.writeToken(name);
+      out.writeExpr(function);
+    }
+
     @Override
     public String toString() {
       return "FunctionStmt";
@@ -92,7 +134,7 @@ abstract class Stmt {
     final Expr.Function function;
   }
 
-  static class If extends Stmt {
+  static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -103,6 +145,17 @@ abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitIfStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(4);
+      out.writeExpr(condition);
+      out.writeStmt(thenBranch);
+      out.writeStmt(elseBranch);
+    }
+
     @Override
     public String toString() {
       return "IfStmt";
@@ -113,7 +166,7 @@ abstract class Stmt {
     final Stmt elseBranch;
   }
 
-  static class Print extends Stmt {
+  static final class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
     }
@@ -122,6 +175,15 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitPrintStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(5);
+      out.writeExpr(expression);
+    }
+
     @Override
     public String toString() {
       return "PrintStmt";
@@ -130,7 +192,7 @@ abstract class Stmt {
     final Expr expression;
   }
 
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
       this.keyword = keyword;
       this.value = value;
@@ -140,6 +202,16 @@ abstract class Stmt {
       return visitor.visitReturnStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitReturnStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(6);
+      out.writeToken(keyword);
+      out.writeExpr(value);
+    }
+
     @Override
     public String toString() {
       return "ReturnStmt";
@@ -149,7 +221,7 @@ abstract class Stmt {
     final Expr value;
   }
 
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
       this.initializer = initializer;
@@ -159,6 +231,16 @@ abstract class Stmt {
       return visitor.visitVarStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitVarStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(7);
+      out.writeToken(name);
+      out.writeExpr(initializer);
+    }
+
     @Override
     public String toString() {
       return "VarStmt";
@@ -168,7 +250,7 @@ abstract class Stmt {
     final Expr initializer;
   }
 
-  static class While extends Stmt {
+  static final class While extends Stmt {
     While(Expr condition, Stmt body) {
       this.condition = condition;
       this.body = body;
@@ -178,6 +260,16 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitWhileStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(8);
+      out.writeExpr(condition);
+      out.writeStmt(body);
+    }
+
     @Override
     public String toString() {
       return "WhileStmt";
@@ -187,7 +279,7 @@ abstract class Stmt {
     final Stmt body;
   }
 
-  static class Break extends Stmt {
+  static final class Break extends Stmt {
     Break() {
     }
 
@@ -195,11 +287,105 @@ abstract class Stmt {
       return visitor.visitBreakStmt(this);
     }
 
+    void execute(Interpreter interpreter) {
+      interpreter.visitBreakStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(9);
+    }
+
     @Override
     public String toString() {
       return "BreakStmt";
     }
   }
 
+  static final class Import extends Stmt {
+    Import(Token keyword, Token path, Token name) {
+      this.keyword = keyword;
+      this.path = path;
+      this.name = name;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    void execute(Interpreter interpreter) {
+      interpreter.visitImportStmt(this);
+    }
+
+    void write(AstWriter out) throws IOException {
+      out.writeTag(10);
+      out.writeToken(keyword);
+      out.writeToken(path);
+      out.writeToken(name);
+    }
+
+    @Override
+    public String toString() {
+      return "ImportStmt";
+    }
+
+    final Token keyword;
+    final Token path;
+    final Token name;
+  }
+
   abstract <R> R accept(Visitor<R> visitor);
+
+  abstract void execute(Interpreter interpreter);
+
+  abstract void write(AstWriter out) throws IOException;
+
+  static Stmt read(AstReader in, int tag) throws IOException {
+    switch (tag) {
+      case 0: {
+        Block node = new Block(in.readStmts());
+        return node;
+      }
+      case 1: {
+        Class node = new Class(in.readToken(), in.readExpr(), in.readStmts(), in.readStmts());
+        return node;
+      }
+      case 2: {
+        Expression node = new Expression(in.readExpr());
+        return node;
+      }
+      case 3: {
+        Function node = new Function(in.readToken(), (Expr.Function) in.readExpr());
+        return node;
+      }
+      case 4: {
+        If node = new If(in.readExpr(), in.readStmt(), in.readStmt());
+        return node;
+      }
+      case 5: {
+        Print node = new Print(in.readExpr());
+        return node;
+      }
+      case 6: {
+        Return node = new Return(in.readToken(), in.readExpr());
+        return node;
+      }
+      case 7: {
+        Var node = new Var(in.readToken(), in.readExpr());
+        return node;
+      }
+      case 8: {
+        While node = new While(in.readExpr(), in.readStmt());
+        return node;
+      }
+      case 9: {
+        Break node = new Break();
+        return node;
+      }
+      case 10: {
+        Import node = new Import(in.readToken(), in.readToken(), in.readToken());
+        return node;
+      }
+    }
+    throw new IOException("Unknown Stmt tag " + tag + ".");
+  }
 }
@@ -0,0 +1,38 @@
+package com.enielsen.lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+// A token list that is scanned on demand as the Parser looks ahead. Tokens
+// the Parser is done with can be released with subList(0, n).clear().
+class TokenStream extends AbstractList<Token> {
+    private final Scanner scanner;
+    private final List<Token> buffer = new ArrayList<>();
+    private boolean atEnd = false;
+
+    TokenStream(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public Token get(int index) {
+        while (index >= buffer.size() && !atEnd) {
+            Token token = scanner.nextToken();
+            buffer.add(token);
+            atEnd = token.type == TokenType.EOF;
+        }
+        // Reading past the end keeps returning the EOF token
+        return buffer.get(Math.min(index, buffer.size() - 1));
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        buffer.subList(fromIndex, toIndex).clear();
+    }
+}
@@ -4,7 +4,7 @@ enum  TokenType {
     // Single-character tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
-    QUESTION_MARK, COLON,
+    QUESTION_MARK, COLON, AMPERSAND, PIPE, CARET,
 
     // One or two character tokens
     BANG, BANG_EQUAL,
@@ -12,6 +12,7 @@ enum  TokenType {
     GREATER, GREATER_EQUAL,
     LESS, LESS_EQUAL,
     PLUS_PLUS, MINUS_MINUS,
+    LESS_LESS, GREATER_GREATER,
 
     // Literals
     IDENTIFIER, STRING, NUMBER,
@@ -19,7 +20,7 @@ enum  TokenType {
     // Keywords
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
-    BREAK, LIST,
+    BREAK, LIST, IMPORT,
 
     EOF
 }
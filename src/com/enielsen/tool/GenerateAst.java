@@ -2,6 +2,7 @@ package com.enielsen.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,26 +13,29 @@ public class GenerateAst {
             System.exit(1);
         }
         String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign     : Token name, Expr value",
+        defineAst(outputDir, "Expr", "Object evaluate", Arrays.asList(
+                "Assign     : Token name, Expr value | int depth = -1",
                 "Conditional: Expr condition, Expr thenBranch, Expr elseBranch",
                 "Binary     : Expr left, Token operator, Expr right",
                 "Call       : Expr callee, Token paren, List<Expr> arguments",
                 "Array      : Token bracket, List<Expr> elements",
+                "Map        : Token brace, List<Expr> keys, List<Expr> values",
                 "Get        : Expr object, Token name",
                 "IndexGet   : Expr indexee, Token bracket, Expr index",
                 "IndexSet   : Expr indexee, Token bracket, Expr index, Expr value",
+                "Slice      : Expr indexee, Token bracket, Expr from, Expr to",
                 "Grouping   : Expr expression",
                 "Literal    : Object value",
                 "Logical    : Expr left, Token operator, Expr right",
                 "Set        : Expr object, Token name, Expr value",
-                "This       : Token keyword",
-                "Super      : Token keyword, Token method",
+                "This       : Token keyword | int depth = -1",
+                "Super      : Token keyword, Token method | int depth = -1",
                 "Unary      : Token operator, Expr right, boolean postfix",
-                "Variable   : Token name",
-                "Function   : List<Token> parameters, List<Stmt> body"
+                "Variable   : Token name | int depth = -1",
+                "Function   : List<Token> parameters | volatile List<Stmt> body = null, DeferredBody deferred = null",
+                "Data       : DataTable table"
         ));
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        defineAst(outputDir, "Stmt", "void execute", Arrays.asList(
                 "Block      : List<Stmt> statements",
                 "Class      : Token name, Expr superClass, List<Stmt.Function> methods, List<Stmt.Function> classMethods",
                 "Expression : Expr expression",
@@ -41,16 +45,24 @@ public class GenerateAst {
                 "Return     : Token keyword, Expr value",
                 "Var        : Token name, Expr initializer",
                 "While      : Expr condition, Stmt body",
-                "Break      : "
+                "Break      : ",
+                "Import     : Token keyword, Token path, Token name"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    // Fields after a '|' are mutable metadata filled in after construction
+    // (resolver depths, lazily parsed bodies), not constructor parameters.
+    // Every type also gets a direct execution method ("Object evaluate" /
+    // "void execute") that calls straight into the Interpreter, so evaluation
+    // does not go through the Visitor interface, and write/read methods for
+    // the binary format of AstWriter/AstReader.
+    private static void defineAst(String outputDir, String baseName, String execution, List<String> types) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
         writer.println("package com.enielsen.lox;");
         writer.println("");
+        writer.println("import java.io.IOException;");
         writer.println("import java.util.List;");
         writer.println("");
         writer.println("abstract class " + baseName + " {");
@@ -59,20 +71,103 @@ public class GenerateAst {
 
 
         // The AST classes
-        for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+        for (int tag = 0; tag < types.size(); tag++) {
+            String type = types.get(tag);
+            defineType(writer, baseName, execution, tag, className(type), fields(type), metadata(type));
         }
 
         // The base accept() method
         writer.println("");
         writer.println("  abstract <R> R accept(Visitor<R> visitor);");
 
+        // The base execution method
+        writer.println("");
+        writer.println("  abstract " + execution + "(Interpreter interpreter);");
+
+        // Serialization
+        writer.println("");
+        writer.println("  abstract void write(AstWriter out) throws IOException;");
+        defineReader(writer, baseName, types);
+
         writer.println("}");
         writer.close();
     }
 
+    private static String className(String type) {
+        return type.split(":")[0].trim();
+    }
+
+    private static String fields(String type) {
+        return type.split(":")[1].split("\\|")[0].trim();
+    }
+
+    private static String metadata(String type) {
+        String[] parts = type.split(":")[1].split("\\|");
+        return parts.length > 1 ? parts[1].trim() : "";
+    }
+
+    private static void defineReader(PrintWriter writer, String baseName, List<String> types) {
+        writer.println("");
+        writer.println("  static " + baseName + " read(AstReader in, int tag) throws IOException {");
+        writer.println("    switch (tag) {");
+        for (int tag = 0; tag < types.size(); tag++) {
+            String type = types.get(tag);
+            String className = className(type);
+            List<String> arguments = new ArrayList<>();
+            for (String field : split(fields(type))) {
+                arguments.add(readCall(fieldType(field)));
+            }
+
+            writer.println("      case " + tag + ": {");
+            writer.println("        " + className + " node = new " + className + "(" + String.join(", ", arguments) + ");");
+            for (String field : split(metadata(type))) {
+                writer.println("        node." + fieldName(field) + " = " + readCall(fieldType(field)) + ";");
+            }
+            writer.println("        return node;");
+            writer.println("      }");
+        }
+        writer.println("    }");
+        writer.println("    throw new IOException(\"Unknown " + baseName + " tag \" + tag + \".\");");
+        writer.println("  }");
+    }
+
+    private static List<String> split(String fieldList) {
+        if (fieldList.isEmpty()) return new ArrayList<>();
+        return Arrays.asList(fieldList.split(", "));
+    }
+
+    // "volatile List<Stmt> body = null" -> "List<Stmt>"
+    private static String fieldType(String field) {
+        String declaration = field.split(" = ")[0].replace("volatile ", "").trim();
+        return declaration.substring(0, declaration.lastIndexOf(' '));
+    }
+
+    private static String fieldName(String field) {
+        String declaration = field.split(" = ")[0].trim();
+        return declaration.substring(declaration.lastIndexOf(' ') + 1);
+    }
+
+    // The AstWriter/AstReader method suffix for a field type
+    private static String ioName(String type) {
+        if (type.equals("List<Token>")) return "Tokens";
+        if (type.startsWith("List<Expr")) return "Exprs";
+        if (type.startsWith("List<Stmt")) return "Stmts";
+        if (type.startsWith("Expr")) return "Expr";
+        if (type.startsWith("Stmt")) return "Stmt";
+        if (type.equals("Object")) return "Literal";
+        if (type.equals("DeferredBody")) return "Deferred";
+        return Character.toUpperCase(type.charAt(0)) + type.substring(1);
+    }
+
+    private static String readCall(String type) {
+        String call = "in.read" + ioName(type) + "()";
+        // Fields of a specific node type, e.g. Expr.Function
+        if (type.contains(".") && !type.startsWith("List")) {
+            return "(" + type + ") " + call;
+        }
+        return call;
+    }
+
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
         writer.println("  interface Visitor<R> {");
 
@@ -84,9 +179,10 @@ public class GenerateAst {
         writer.println("  }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String execution, int tag,
+                                   String className, String fieldList, String metadataList) {
         writer.println("");
-        writer.println("  static class " + className + " extends " + baseName + " {");
+        writer.println("  static final class " + className + " extends " + baseName + " {");
 
         // Constructor.
         writer.println("    " + className + "(" + fieldList + ") {");
@@ -108,6 +204,26 @@ public class GenerateAst {
         writer.println("      return visitor.visit" + className + baseName + "(this);");
         writer.println("    }");
 
+        // Direct execution
+        boolean returnsValue = !execution.startsWith("void ");
+        writer.println();
+        writer.println("    " + execution + "(Interpreter interpreter) {");
+        writer.println("      " + (returnsValue ? "return " : "") +
+                "interpreter.visit" + className + baseName + "(this);");
+        writer.println("    }");
+
+        // Serialization, read back by the base class's read()
+        writer.println();
+        writer.println("    void write(AstWriter out) throws IOException {");
+        writer.println("      out.writeTag(" + tag + ");");
+        for (String field : split(fieldList)) {
+            writer.println("      out.write" + ioName(fieldType(field)) + "(" + fieldName(field) + ");");
+        }
+        for (String field : split(metadataList)) {
+            writer.println("      out.write" + ioName(fieldType(field)) + "(" + fieldName(field) + ");");
+        }
+        writer.println("    }");
+
         // toString
         writer.println();
         writer.println("    @Override");
@@ -122,6 +238,14 @@ public class GenerateAst {
                 writer.println("    final " + field + ";");
             }
         }
+
+        if (!metadataList.isEmpty()) {
+            // Resolved metadata.
+            writer.println();
+            for (String field : metadataList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
         writer.println("  }");
     }
 }